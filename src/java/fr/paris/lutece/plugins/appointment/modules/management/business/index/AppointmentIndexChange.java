@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.business.index;
+
+/**
+ * A change of the appointment index, recorded in the change log shared by the nodes of a cluster
+ */
+public class AppointmentIndexChange
+{
+    /**
+     * Task of the rows filling the ids of the log left by rolled back inserts, which carry no change
+     */
+    public static final int TASK_GAP = 0;
+
+    private int _nIdChange;
+    private int _nIdAppointment;
+    private int _nIdTask;
+    private String _strNodeName;
+
+    /**
+     * @return the id of the change, in the order of the log
+     */
+    public int getIdChange( )
+    {
+        return _nIdChange;
+    }
+
+    /**
+     * @param nIdChange
+     *            the id of the change
+     */
+    public void setIdChange( int nIdChange )
+    {
+        _nIdChange = nIdChange;
+    }
+
+    /**
+     * @return the id of the changed appointment
+     */
+    public int getIdAppointment( )
+    {
+        return _nIdAppointment;
+    }
+
+    /**
+     * @param nIdAppointment
+     *            the id of the changed appointment
+     */
+    public void setIdAppointment( int nIdAppointment )
+    {
+        _nIdAppointment = nIdAppointment;
+    }
+
+    /**
+     * @return the task of the change, one of IndexerAction.TASK_CREATE, TASK_MODIFY or TASK_DELETE
+     */
+    public int getIdTask( )
+    {
+        return _nIdTask;
+    }
+
+    /**
+     * @param nIdTask
+     *            the task of the change
+     */
+    public void setIdTask( int nIdTask )
+    {
+        _nIdTask = nIdTask;
+    }
+
+    /**
+     * @return the name of the node which recorded the change
+     */
+    public String getNodeName( )
+    {
+        return _strNodeName;
+    }
+
+    /**
+     * @param strNodeName
+     *            the name of the node which recorded the change
+     */
+    public void setNodeName( String strNodeName )
+    {
+        _strNodeName = strNodeName;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.business.index;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides Data Access methods for the change log of the appointment index and the cursors of the nodes
+ */
+public final class AppointmentIndexChangeDAO implements IAppointmentIndexChangeDAO
+{
+    // Constants
+    private static final String SQL_QUERY_INSERT = "INSERT INTO appointment_management_index_change ( id_appointment, id_task, node_name, date_change ) VALUES ( ?, ?, ?, ? )";
+    private static final String SQL_QUERY_INSERT_GAP = "INSERT INTO appointment_management_index_change ( id_change, id_appointment, id_task, node_name, date_change ) VALUES ( ?, 0, ?, ?, ? )";
+    private static final String SQL_QUERY_SELECT_AFTER = "SELECT id_change, id_appointment, id_task, node_name FROM appointment_management_index_change WHERE id_change > ? ORDER BY id_change LIMIT ?";
+    private static final String SQL_QUERY_SELECT_LAST_ID_CHANGE = "SELECT MAX( id_change ) FROM appointment_management_index_change";
+    private static final String SQL_QUERY_DELETE_CONSUMED = "DELETE FROM appointment_management_index_change WHERE id_change <= ( SELECT MIN( id_last_change ) FROM appointment_management_index_cursor )";
+    private static final String SQL_QUERY_SELECT_CURSOR = "SELECT id_last_change FROM appointment_management_index_cursor WHERE node_name = ?";
+    private static final String SQL_QUERY_INSERT_CURSOR = "INSERT INTO appointment_management_index_cursor ( node_name, id_last_change, date_update ) VALUES ( ?, ?, ? )";
+    private static final String SQL_QUERY_UPDATE_CURSOR = "UPDATE appointment_management_index_cursor SET id_last_change = ?, date_update = ? WHERE node_name = ?";
+    private static final String SQL_QUERY_DELETE_CURSORS_UPDATED_BEFORE = "DELETE FROM appointment_management_index_cursor WHERE date_update < ?";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insert( AppointmentIndexChange change, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, change.getIdAppointment( ) );
+            daoUtil.setInt( nIndex++, change.getIdTask( ) );
+            daoUtil.setString( nIndex++, change.getNodeName( ) );
+            daoUtil.setTimestamp( nIndex, new Timestamp( System.currentTimeMillis( ) ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insertGap( int nIdChange, String strNodeName, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT_GAP, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, nIdChange );
+            daoUtil.setInt( nIndex++, AppointmentIndexChange.TASK_GAP );
+            daoUtil.setString( nIndex++, strNodeName );
+            daoUtil.setTimestamp( nIndex, new Timestamp( System.currentTimeMillis( ) ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<AppointmentIndexChange> selectAfter( int nIdChange, int nLimit, Plugin plugin )
+    {
+        List<AppointmentIndexChange> listChange = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_AFTER, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdChange );
+            daoUtil.setInt( 2, nLimit );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                int nIndex = 1;
+                AppointmentIndexChange change = new AppointmentIndexChange( );
+                change.setIdChange( daoUtil.getInt( nIndex++ ) );
+                change.setIdAppointment( daoUtil.getInt( nIndex++ ) );
+                change.setIdTask( daoUtil.getInt( nIndex++ ) );
+                change.setNodeName( daoUtil.getString( nIndex ) );
+                listChange.add( change );
+            }
+        }
+        return listChange;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int selectLastIdChange( Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_LAST_ID_CHANGE, plugin ) )
+        {
+            daoUtil.executeQuery( );
+            if ( daoUtil.next( ) )
+            {
+                return daoUtil.getInt( 1 );
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteConsumed( Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_CONSUMED, plugin ) )
+        {
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer selectCursor( String strNodeName, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_CURSOR, plugin ) )
+        {
+            daoUtil.setString( 1, strNodeName );
+            daoUtil.executeQuery( );
+            if ( daoUtil.next( ) )
+            {
+                return daoUtil.getInt( 1 );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insertCursor( String strNodeName, int nIdChange, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT_CURSOR, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, strNodeName );
+            daoUtil.setInt( nIndex++, nIdChange );
+            daoUtil.setTimestamp( nIndex, new Timestamp( System.currentTimeMillis( ) ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateCursor( String strNodeName, int nIdChange, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_UPDATE_CURSOR, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, nIdChange );
+            daoUtil.setTimestamp( nIndex++, new Timestamp( System.currentTimeMillis( ) ) );
+            daoUtil.setString( nIndex, strNodeName );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteCursorsUpdatedBefore( Timestamp date, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_CURSORS_UPDATED_BEFORE, plugin ) )
+        {
+            daoUtil.setTimestamp( 1, date );
+            daoUtil.executeUpdate( );
+        }
+    }
+}
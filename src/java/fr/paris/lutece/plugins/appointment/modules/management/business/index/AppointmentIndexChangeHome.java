@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.business.index;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.modules.management.service.AppointmentManagementPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+/**
+ * This class provides instances management methods for the change log of the appointment index and the cursors of the nodes
+ */
+public final class AppointmentIndexChangeHome
+{
+    // Static variable pointed at the DAO instance
+    private static IAppointmentIndexChangeDAO _dao = SpringContextService.getBean( "appointment-management.appointmentIndexChangeDAO" );
+    private static Plugin _plugin = PluginService.getPlugin( AppointmentManagementPlugin.PLUGIN_NAME );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private AppointmentIndexChangeHome( )
+    {
+    }
+
+    /**
+     * Record a change in the log
+     * 
+     * @param change
+     *            the change
+     */
+    public static void create( AppointmentIndexChange change )
+    {
+        _dao.insert( change, _plugin );
+    }
+
+    /**
+     * Fill a missing id of the log with a row carrying no change, once the transaction which may hold the id is over. Fails with an AppException if
+     * the id is committed by its transaction, or if the wait for it fails
+     * 
+     * @param nIdChange
+     *            the missing id
+     * @param strNodeName
+     *            the name of the node
+     */
+    public static void createGap( int nIdChange, String strNodeName )
+    {
+        _dao.insertGap( nIdChange, strNodeName, _plugin );
+    }
+
+    /**
+     * Find the changes following a change of the log, in the order of the log
+     * 
+     * @param nIdChange
+     *            the id of the change
+     * @param nLimit
+     *            the maximum number of changes
+     * @return the changes
+     */
+    public static List<AppointmentIndexChange> findAfter( int nIdChange, int nLimit )
+    {
+        return _dao.selectAfter( nIdChange, nLimit, _plugin );
+    }
+
+    /**
+     * Find the id of the last change of the log
+     * 
+     * @return the id of the last change, 0 if the log is empty
+     */
+    public static int findLastIdChange( )
+    {
+        return _dao.selectLastIdChange( _plugin );
+    }
+
+    /**
+     * Remove the changes consumed by all the nodes which have a cursor
+     */
+    public static void removeConsumed( )
+    {
+        _dao.deleteConsumed( _plugin );
+    }
+
+    /**
+     * Find the cursor of a node
+     * 
+     * @param strNodeName
+     *            the name of the node
+     * @return the id of the last change consumed by the node, or null if the node has no cursor
+     */
+    public static Integer findCursor( String strNodeName )
+    {
+        return _dao.selectCursor( strNodeName, _plugin );
+    }
+
+    /**
+     * Create the cursor of a node
+     * 
+     * @param strNodeName
+     *            the name of the node
+     * @param nIdChange
+     *            the id of the last change consumed by the node
+     */
+    public static void createCursor( String strNodeName, int nIdChange )
+    {
+        _dao.insertCursor( strNodeName, nIdChange, _plugin );
+    }
+
+    /**
+     * Update the cursor of a node
+     * 
+     * @param strNodeName
+     *            the name of the node
+     * @param nIdChange
+     *            the id of the last change consumed by the node
+     */
+    public static void updateCursor( String strNodeName, int nIdChange )
+    {
+        _dao.updateCursor( strNodeName, nIdChange, _plugin );
+    }
+
+    /**
+     * Remove the cursors of the nodes which have not consumed the log since a date
+     * 
+     * @param date
+     *            the date
+     */
+    public static void removeCursorsUpdatedBefore( Timestamp date )
+    {
+        _dao.deleteCursorsUpdatedBefore( date, _plugin );
+    }
+}
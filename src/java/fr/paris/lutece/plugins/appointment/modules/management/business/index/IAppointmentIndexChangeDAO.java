@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.business.index;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+/**
+ * IAppointmentIndexChangeDAO Interface
+ */
+public interface IAppointmentIndexChangeDAO
+{
+    /**
+     * Insert a change in the log
+     * 
+     * @param change
+     *            the change
+     * @param plugin
+     *            the plugin
+     */
+    void insert( AppointmentIndexChange change, Plugin plugin );
+
+    /**
+     * Insert a row carrying no change at a missing id of the log. The insert waits for the transaction which may hold the id, and fails if the id is
+     * committed by it
+     * 
+     * @param nIdChange
+     *            the missing id
+     * @param strNodeName
+     *            the name of the node
+     * @param plugin
+     *            the plugin
+     */
+    void insertGap( int nIdChange, String strNodeName, Plugin plugin );
+
+    /**
+     * Load the changes following a change of the log, in the order of the log
+     * 
+     * @param nIdChange
+     *            the id of the change
+     * @param nLimit
+     *            the maximum number of changes
+     * @param plugin
+     *            the plugin
+     * @return the changes
+     */
+    List<AppointmentIndexChange> selectAfter( int nIdChange, int nLimit, Plugin plugin );
+
+    /**
+     * Load the id of the last change of the log
+     * 
+     * @param plugin
+     *            the plugin
+     * @return the id of the last change, 0 if the log is empty
+     */
+    int selectLastIdChange( Plugin plugin );
+
+    /**
+     * Delete the changes consumed by all the nodes which have a cursor
+     * 
+     * @param plugin
+     *            the plugin
+     */
+    void deleteConsumed( Plugin plugin );
+
+    /**
+     * Load the cursor of a node : the id of the last change it consumed
+     * 
+     * @param strNodeName
+     *            the name of the node
+     * @param plugin
+     *            the plugin
+     * @return the id of the last change consumed by the node, or null if the node has no cursor
+     */
+    Integer selectCursor( String strNodeName, Plugin plugin );
+
+    /**
+     * Insert the cursor of a node
+     * 
+     * @param strNodeName
+     *            the name of the node
+     * @param nIdChange
+     *            the id of the last change consumed by the node
+     * @param plugin
+     *            the plugin
+     */
+    void insertCursor( String strNodeName, int nIdChange, Plugin plugin );
+
+    /**
+     * Update the cursor of a node, and its date
+     * 
+     * @param strNodeName
+     *            the name of the node
+     * @param nIdChange
+     *            the id of the last change consumed by the node
+     * @param plugin
+     *            the plugin
+     */
+    void updateCursor( String strNodeName, int nIdChange, Plugin plugin );
+
+    /**
+     * Delete the cursors which have not been updated since a date
+     * 
+     * @param date
+     *            the date
+     * @param plugin
+     *            the plugin
+     */
+    void deleteCursorsUpdatedBefore( Timestamp date, Plugin plugin );
+}
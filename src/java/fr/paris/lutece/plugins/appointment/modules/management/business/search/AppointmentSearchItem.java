@@ -63,6 +63,10 @@ public class AppointmentSearchItem extends SearchItem
     public static final String FIELD_MAIL = "mail";
     public static final String FIELD_MAIL_SEARCH = "mail_search";
     public static final String FIELD_PHONE_NUMBER = "phone_number";
+    public static final String FIELD_FIRST_NAME_NGRAM = "first_name_ngram";
+    public static final String FIELD_LAST_NAME_NGRAM = "last_name_ngram";
+    public static final String FIELD_MAIL_NGRAM = "mail_ngram";
+    public static final String FIELD_PHONE_NUMBER_NGRAM = "phone_number_ngram";
     public static final String FIELD_START_DATE = "start_date";
     public static final String FIELD_END_DATE = "end_date";
     public static final String FIELD_ADMIN = "admin";
@@ -122,6 +126,63 @@ public class AppointmentSearchItem extends SearchItem
         _idCategory = manageIntegerNullValue( document.get( AppointmentSearchItem.FIELD_ID_CATEGORY ) );
     }
 
+    /**
+     * Constructor from the values already decoded from the index, without any stored document
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @param nIdForm
+     *            the form id
+     * @param strFirstName
+     *            the first name
+     * @param strLastName
+     *            the last name
+     * @param strMail
+     *            the mail
+     * @param strPhoneNumber
+     *            the phone number, may be null
+     * @param lStartDate
+     *            the start date in epoch milliseconds
+     * @param lEndDate
+     *            the end date in epoch milliseconds
+     * @param strAdmin
+     *            the admin
+     * @param bCancelled
+     *            true if the appointment is cancelled
+     * @param nIdState
+     *            the workflow state id, -1 if none
+     * @param nNbSeats
+     *            the number of booked seats
+     * @param lDateAppointmentTaken
+     *            the date the appointment was taken in epoch milliseconds
+     * @param nIdCategory
+     *            the category id
+     */
+    public AppointmentSearchItem( int nIdAppointment, int nIdForm, String strFirstName, String strLastName, String strMail, String strPhoneNumber,
+            long lStartDate, long lEndDate, String strAdmin, boolean bCancelled, int nIdState, int nNbSeats, long lDateAppointmentTaken, int nIdCategory )
+    {
+        super( new Document( ) );
+
+        _idAppointment = nIdAppointment;
+        _idForm = nIdForm;
+        _firstName = strFirstName;
+        _lastName = strLastName;
+        _mail = strMail;
+        _startDate = toLocalDateTime( lStartDate );
+        _phoneNumber = strPhoneNumber != null ? strPhoneNumber : "";
+        _endDate = toLocalDateTime( lEndDate );
+        _admin = strAdmin;
+        _cancelled = bCancelled;
+        _idState = nIdState;
+        _nbSeats = nNbSeats;
+        _dateAppointmentTaken = toLocalDateTime( lDateAppointmentTaken );
+
+        _dateOfTheAppointment = _startDate.toLocalDate( ).format( Utilities.getFormatter( ) );
+        _startingTime = _startDate.toLocalTime( );
+        _endingTime = _endDate.toLocalTime( );
+        _idCategory = nIdCategory;
+    }
+
     /**
      * @return the idAppointment
      */
@@ -224,11 +285,16 @@ public class AppointmentSearchItem extends SearchItem
 
         if ( StringUtils.isNotEmpty( strDocumentValue ) )
         {
-            date = LocalDateTime.ofInstant( Instant.ofEpochMilli( Long.valueOf( strDocumentValue ) ), TimeZone.getDefault( ).toZoneId( ) );
+            date = toLocalDateTime( Long.parseLong( strDocumentValue ) );
         }
         return date;
     }
 
+    private static LocalDateTime toLocalDateTime( long lEpochMilli )
+    {
+        return LocalDateTime.ofInstant( Instant.ofEpochMilli( lEpochMilli ), TimeZone.getDefault( ).toZoneId( ) );
+    }
+
     private Integer manageIntegerNullValue( String strDocumentValue )
     {
         Integer nReturn = INTEGER_MINUS_ONE;
@@ -35,6 +35,8 @@ package fr.paris.lutece.plugins.appointment.modules.management.business.search;
 
 import java.util.List;
 
+import org.apache.lucene.search.Query;
+
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFilterDTO;
 
 public class MultiviewFilter extends AppointmentFilterDTO
@@ -45,6 +47,8 @@ public class MultiviewFilter extends AppointmentFilterDTO
 
     private List<Integer> _idFormList;
 
+    private transient Query _idFormQuery;
+
     /**
      * @return the nIdCategory
      */
@@ -75,8 +79,28 @@ public class MultiviewFilter extends AppointmentFilterDTO
      *            the idFormList to set
      */
     public void setIdFormList( List<Integer> idFormList )
+    {
+        setIdFormList( idFormList, null );
+    }
+
+    /**
+     * @param idFormList
+     *            the idFormList to set
+     * @param idFormQuery
+     *            the query matching the appointments of these forms, reused by the searches instead of building it from the list
+     */
+    public void setIdFormList( List<Integer> idFormList, Query idFormQuery )
     {
         _idFormList = idFormList;
+        _idFormQuery = idFormQuery;
+    }
+
+    /**
+     * @return the query matching the appointments of the forms of idFormList, or null if it must be built from the list
+     */
+    public Query getIdFormQuery( )
+    {
+        return _idFormQuery;
     }
 
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.business.workflow;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides Data Access methods for the workflow state of the resources
+ */
+public final class ResourceStateDAO implements IResourceStateDAO
+{
+    // Constants
+    private static final String SQL_QUERY_SELECT_BY_LIST_ID_RESOURCE = "SELECT id_resource, id_state FROM workflow_resource_workflow WHERE resource_type = ? AND id_workflow = ? AND id_resource IN ( ";
+    private static final String SQL_PARAMETER = "?";
+    private static final String SQL_SEPARATOR = ", ";
+    private static final String SQL_CLOSE_PARENTHESIS = " )";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Integer, Integer> selectIdStateByListIdResource( List<Integer> listIdResource, String strResourceType, int nIdWorkflow, Plugin plugin )
+    {
+        Map<Integer, Integer> mapIdState = new HashMap<>( );
+        if ( listIdResource.isEmpty( ) )
+        {
+            return mapIdState;
+        }
+
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_SELECT_BY_LIST_ID_RESOURCE );
+        for ( int i = 0; i < listIdResource.size( ); i++ )
+        {
+            if ( i > 0 )
+            {
+                sbSql.append( SQL_SEPARATOR );
+            }
+            sbSql.append( SQL_PARAMETER );
+        }
+        sbSql.append( SQL_CLOSE_PARENTHESIS );
+
+        try ( DAOUtil daoUtil = new DAOUtil( sbSql.toString( ), plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, strResourceType );
+            daoUtil.setInt( nIndex++, nIdWorkflow );
+            for ( Integer nIdResource : listIdResource )
+            {
+                daoUtil.setInt( nIndex++, nIdResource );
+            }
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                mapIdState.put( daoUtil.getInt( 1 ), daoUtil.getInt( 2 ) );
+            }
+        }
+        return mapIdState;
+    }
+}
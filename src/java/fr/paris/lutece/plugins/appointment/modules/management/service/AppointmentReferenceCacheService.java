@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import fr.paris.lutece.plugins.appointment.business.category.Category;
+import fr.paris.lutece.plugins.appointment.business.category.CategoryHome;
+import fr.paris.lutece.plugins.appointment.business.form.Form;
+import fr.paris.lutece.plugins.appointment.business.form.FormHome;
+import fr.paris.lutece.plugins.workflowcore.business.state.State;
+import fr.paris.lutece.plugins.workflowcore.business.state.StateFilter;
+import fr.paris.lutece.plugins.workflowcore.service.state.StateService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Cache of the reference data used to label and index the appointments : the forms, the categories and the workflow states. The three tables are
+ * loaded together in a versioned snapshot, which is reloaded once its time to live is over or when the cache is invalidated, on the changes of the forms.
+ */
+public class AppointmentReferenceCacheService
+{
+    public static final String BEAN_NAME = "appointment-management.appointmentReferenceCacheService";
+
+    private static final String PROPERTY_TIME_TO_LIVE = "appointment-management.referenceCache.timeToLive";
+    private static final long DEFAULT_TIME_TO_LIVE = 60;
+
+    @Autowired( required = false )
+    private StateService _stateService;
+
+    private final AtomicLong _lVersion = new AtomicLong( );
+    private volatile ReferenceData _referenceData;
+
+    /**
+     * @return the forms, by id, in the order of FormHome.findAllForms
+     */
+    public Map<Integer, Form> getForms( )
+    {
+        return getReferenceData( )._mapForms;
+    }
+
+    /**
+     * Get a form. A form created since the last load of the cache is loaded on its own
+     * 
+     * @param nIdForm
+     *            the form id
+     * @return the form, or null if not found
+     */
+    public Form getForm( int nIdForm )
+    {
+        Form form = getForms( ).get( nIdForm );
+        if ( form == null )
+        {
+            form = FormHome.findByPrimaryKey( nIdForm );
+        }
+        return form;
+    }
+
+    /**
+     * @return the categories, by id, in the order of CategoryHome.findAllCategories
+     */
+    public Map<Integer, Category> getCategories( )
+    {
+        return getReferenceData( )._mapCategories;
+    }
+
+    /**
+     * @return the workflow states of all the workflows, by id
+     */
+    public Map<Integer, State> getStates( )
+    {
+        return getReferenceData( )._mapStates;
+    }
+
+    /**
+     * Get a workflow state. A state created since the last load of the cache is loaded on its own
+     * 
+     * @param nIdState
+     *            the state id
+     * @return the state, or null if not found
+     */
+    public State getState( int nIdState )
+    {
+        State state = getStates( ).get( nIdState );
+        if ( state == null && _stateService != null )
+        {
+            state = _stateService.findByPrimaryKey( nIdState );
+        }
+        return state;
+    }
+
+    /**
+     * Get the version of the cached reference data. The version changes each time the reloaded reference data differ from the previous ones, so that
+     * it can tag the data derived from them
+     * 
+     * @return the version
+     */
+    public long getVersion( )
+    {
+        return getReferenceData( )._lVersion;
+    }
+
+    /**
+     * Invalidate the cache, the reference data are loaded again on their next use
+     */
+    public void invalidate( )
+    {
+        ReferenceData referenceData = _referenceData;
+        if ( referenceData != null )
+        {
+            // The invalidated data are kept to be compared to the reloaded ones
+            referenceData.invalidate( );
+        }
+    }
+
+    /**
+     * Get the cached reference data, loading them if they are missing or expired
+     * 
+     * @return the reference data
+     */
+    private ReferenceData getReferenceData( )
+    {
+        ReferenceData referenceData = _referenceData;
+        if ( referenceData == null || referenceData.isExpired( ) )
+        {
+            synchronized( this )
+            {
+                referenceData = _referenceData;
+                if ( referenceData == null || referenceData.isExpired( ) )
+                {
+                    referenceData = loadReferenceData( referenceData );
+                    _referenceData = referenceData;
+                }
+            }
+        }
+        return referenceData;
+    }
+
+    /**
+     * Load the reference data. They keep the version of the previous data if they have not changed
+     * 
+     * @param previousData
+     *            the previous reference data, may be null
+     * @return the reference data
+     */
+    private ReferenceData loadReferenceData( ReferenceData previousData )
+    {
+        Map<Integer, Form> mapForms = new LinkedHashMap<>( );
+        for ( Form form : FormHome.findAllForms( ) )
+        {
+            mapForms.put( form.getIdForm( ), form );
+        }
+
+        Map<Integer, Category> mapCategories = new LinkedHashMap<>( );
+        for ( Category category : CategoryHome.findAllCategories( ) )
+        {
+            mapCategories.put( category.getIdCategory( ), category );
+        }
+
+        Map<Integer, State> mapStates = new LinkedHashMap<>( );
+        if ( _stateService != null )
+        {
+            for ( State state : _stateService.getListStateByFilter( new StateFilter( ) ) )
+            {
+                mapStates.put( state.getId( ), state );
+            }
+        }
+
+        long lTimeToLive = AppPropertiesService.getPropertyLong( PROPERTY_TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE ) * 1000L;
+        long lVersion;
+        if ( previousData != null && isUnchanged( previousData._mapForms, mapForms, AppointmentReferenceCacheService::isSameForm )
+                && isUnchanged( previousData._mapCategories, mapCategories, AppointmentReferenceCacheService::isSameCategory )
+                && isUnchanged( previousData._mapStates, mapStates, AppointmentReferenceCacheService::isSameState ) )
+        {
+            lVersion = previousData._lVersion;
+        }
+        else
+        {
+            lVersion = _lVersion.incrementAndGet( );
+        }
+        return new ReferenceData( lVersion, System.currentTimeMillis( ) + lTimeToLive, mapForms, mapCategories, mapStates );
+    }
+
+    /**
+     * Tell if a reloaded table holds the same items, in the same order, as the previous one
+     * 
+     * @param mapPrevious
+     *            the previous items, by id
+     * @param map
+     *            the reloaded items, by id
+     * @param sameItem
+     *            tells if two items with the same id are the same
+     * @return true if the table has not changed
+     */
+    private static <T> boolean isUnchanged( Map<Integer, T> mapPrevious, Map<Integer, T> map, BiPredicate<T, T> sameItem )
+    {
+        if ( mapPrevious.size( ) != map.size( ) )
+        {
+            return false;
+        }
+        Iterator<Map.Entry<Integer, T>> iterator = mapPrevious.entrySet( ).iterator( );
+        for ( Map.Entry<Integer, T> entry : map.entrySet( ) )
+        {
+            Map.Entry<Integer, T> previousEntry = iterator.next( );
+            if ( !entry.getKey( ).equals( previousEntry.getKey( ) ) || !sameItem.test( previousEntry.getValue( ), entry.getValue( ) ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare the attributes of two forms used by the multiview, its authorizations and the indexing
+     * 
+     * @param form1
+     *            the first form
+     * @param form2
+     *            the second form
+     * @return true if they are the same
+     */
+    private static boolean isSameForm( Form form1, Form form2 )
+    {
+        return Objects.equals( form1.getTitle( ), form2.getTitle( ) ) && form1.getIdCategory( ) == form2.getIdCategory( )
+                && form1.getIdWorkflow( ) == form2.getIdWorkflow( ) && Objects.equals( form1.getWorkgroup( ), form2.getWorkgroup( ) );
+    }
+
+    /**
+     * Compare the attributes of two categories used by the multiview
+     * 
+     * @param category1
+     *            the first category
+     * @param category2
+     *            the second category
+     * @return true if they are the same
+     */
+    private static boolean isSameCategory( Category category1, Category category2 )
+    {
+        return Objects.equals( category1.getLabel( ), category2.getLabel( ) );
+    }
+
+    /**
+     * Compare the attributes of two workflow states used by the multiview
+     * 
+     * @param state1
+     *            the first state
+     * @param state2
+     *            the second state
+     * @return true if they are the same
+     */
+    private static boolean isSameState( State state1, State state2 )
+    {
+        return Objects.equals( state1.getName( ), state2.getName( ) );
+    }
+
+    /**
+     * Snapshot of the reference data, immutable but for its invalidation
+     */
+    private static final class ReferenceData
+    {
+        private final long _lVersion;
+        private final long _lExpirationTime;
+        private final Map<Integer, Form> _mapForms;
+        private final Map<Integer, Category> _mapCategories;
+        private final Map<Integer, State> _mapStates;
+        private volatile boolean _bInvalidated;
+
+        ReferenceData( long lVersion, long lExpirationTime, Map<Integer, Form> mapForms, Map<Integer, Category> mapCategories, Map<Integer, State> mapStates )
+        {
+            _lVersion = lVersion;
+            _lExpirationTime = lExpirationTime;
+            _mapForms = Collections.unmodifiableMap( mapForms );
+            _mapCategories = Collections.unmodifiableMap( mapCategories );
+            _mapStates = Collections.unmodifiableMap( mapStates );
+        }
+
+        void invalidate( )
+        {
+            _bInvalidated = true;
+        }
+
+        boolean isExpired( )
+        {
+            return _bInvalidated || System.currentTimeMillis( ) >= _lExpirationTime;
+        }
+    }
+}
@@ -33,27 +33,20 @@
  */
 package fr.paris.lutece.plugins.appointment.modules.management.service;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
-import org.springframework.beans.factory.annotation.Autowired;
-
 import fr.paris.lutece.plugins.appointment.business.category.Category;
-import fr.paris.lutece.plugins.appointment.business.category.CategoryHome;
 import fr.paris.lutece.plugins.appointment.business.form.Form;
-import fr.paris.lutece.plugins.appointment.business.form.FormHome;
 import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
 import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentFacetCounts;
+import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentSearchCursor;
 import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentSearchEngine;
 import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentSortConfig;
 import fr.paris.lutece.plugins.workflowcore.business.state.State;
-import fr.paris.lutece.plugins.workflowcore.business.state.StateFilter;
-import fr.paris.lutece.plugins.workflowcore.service.state.StateService;
 
 public class AppointmentSearchService implements IAppointmentSearchService
 {
@@ -62,23 +55,46 @@ public class AppointmentSearchService implements IAppointmentSearchService
     @Inject
     private AppointmentSearchEngine _searchEngine;
 
-    @Autowired( required = false )
-    private StateService _stateService;
+    @Inject
+    private AppointmentReferenceCacheService _referenceCacheService;
 
     @Override
     public int search( List<AppointmentSearchItem> results, MultiviewFilter filter, int nStartIndex, int nPageSize, AppointmentSortConfig sortConfig )
     {
         int nbResults = _searchEngine.getSearchResult( results, filter, nStartIndex, nPageSize, sortConfig );
-        Map<Integer, Form> mapForms = FormHome.findAllForms( ).stream( ).collect( Collectors.toMap( Form::getIdForm, Function.identity( ) ) );
-        Map<Integer, State> mapState = new HashMap<>( );
-        Map<Integer, Category> mapCategory = CategoryHome.findAllCategories( ).stream( )
-                .collect( Collectors.toMap( Category::getIdCategory, Function.identity( ) ) );
+        fillTitles( results );
+        return nbResults;
+    }
 
-        if ( _stateService != null )
-        {
-            List<State> stateList = _stateService.getListStateByFilter( new StateFilter( ) );
-            mapState = stateList.stream( ).collect( Collectors.toMap( State::getId, Function.identity( ) ) );
-        }
+    @Override
+    public int search( List<AppointmentSearchItem> results, MultiviewFilter filter, AppointmentSearchCursor cursor, int nPageIndex, int nPageSize,
+            AppointmentSortConfig sortConfig )
+    {
+        int nbResults = _searchEngine.getSearchResult( results, filter, cursor, nPageIndex, nPageSize, sortConfig );
+        fillTitles( results );
+        return nbResults;
+    }
+
+    @Override
+    public int search( List<AppointmentSearchItem> results, MultiviewFilter filter, AppointmentSearchCursor cursor, int nPageIndex, int nPageSize,
+            AppointmentSortConfig sortConfig, AppointmentFacetCounts facetCounts )
+    {
+        int nbResults = _searchEngine.getSearchResult( results, filter, cursor, nPageIndex, nPageSize, sortConfig, facetCounts );
+        fillTitles( results );
+        return nbResults;
+    }
+
+    /**
+     * Fill the form, state and category titles of the results
+     * 
+     * @param results
+     *            the results
+     */
+    private void fillTitles( List<AppointmentSearchItem> results )
+    {
+        Map<Integer, Form> mapForms = _referenceCacheService.getForms( );
+        Map<Integer, State> mapState = _referenceCacheService.getStates( );
+        Map<Integer, Category> mapCategory = _referenceCacheService.getCategories( );
 
         for ( AppointmentSearchItem item : results )
         {
@@ -99,6 +115,5 @@ public class AppointmentSearchService implements IAppointmentSearchService
                 item.setCategoryTitle( category.getLabel( ) );
             }
         }
-        return nbResults;
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import fr.paris.lutece.api.user.User;
+import fr.paris.lutece.plugins.appointment.business.form.Form;
+import fr.paris.lutece.plugins.appointment.service.AppointmentResourceIdService;
+import fr.paris.lutece.portal.service.rbac.RBACService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.portal.service.workgroup.AdminWorkgroupService;
+
+/**
+ * Cache of the forms each user is authorized to view in the multiview. The authorized forms of a user are computed with the workgroup and RBAC
+ * services once, then reused until the forms change in the reference cache or the time to live is over. The core has no event on the changes of the
+ * RBAC rights or of the workgroups of a user, so the time to live bounds the delay before they are seen.
+ */
+public class AuthorizedFormCacheService
+{
+    public static final String BEAN_NAME = "appointment-management.authorizedFormCacheService";
+
+    private static final String PROPERTY_TIME_TO_LIVE = "appointment-management.authorizedForms.timeToLive";
+    private static final long DEFAULT_TIME_TO_LIVE = 300;
+    private static final int MAX_USERS = 1000;
+
+    @Inject
+    private AppointmentReferenceCacheService _referenceCacheService;
+
+    private final Map<String, AuthorizedFormSet> _mapAuthorizedForms = new LinkedHashMap<String, AuthorizedFormSet>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, AuthorizedFormSet> eldest )
+        {
+            return size( ) > MAX_USERS;
+        }
+    };
+
+    /**
+     * Get the forms a user is authorized to view
+     * 
+     * @param user
+     *            the user
+     * @return the authorized forms
+     */
+    public AuthorizedFormSet getAuthorizedForms( User user )
+    {
+        long lReferenceVersion = _referenceCacheService.getVersion( );
+        String strKey = user.getAccessCode( );
+
+        AuthorizedFormSet authorizedForms;
+        synchronized( _mapAuthorizedForms )
+        {
+            authorizedForms = _mapAuthorizedForms.get( strKey );
+        }
+        if ( authorizedForms == null || !authorizedForms.isValid( lReferenceVersion ) )
+        {
+            authorizedForms = computeAuthorizedForms( user, lReferenceVersion );
+            synchronized( _mapAuthorizedForms )
+            {
+                _mapAuthorizedForms.put( strKey, authorizedForms );
+            }
+        }
+        return authorizedForms;
+    }
+
+    /**
+     * Compute the forms a user is authorized to view
+     * 
+     * @param user
+     *            the user
+     * @param lReferenceVersion
+     *            the version of the reference cache
+     * @return the authorized forms
+     */
+    private AuthorizedFormSet computeAuthorizedForms( User user, long lReferenceVersion )
+    {
+        List<Form> formList = new ArrayList<>( _referenceCacheService.getForms( ).values( ) );
+        formList = (List<Form>) AdminWorkgroupService.getAuthorizedCollection( formList, user );
+        formList = (List<Form>) RBACService.getAuthorizedCollection( formList, AppointmentResourceIdService.PERMISSION_VIEW_FORM, user );
+
+        long lTimeToLive = AppPropertiesService.getPropertyLong( PROPERTY_TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE ) * 1000L;
+        return new AuthorizedFormSet( formList, lReferenceVersion, System.currentTimeMillis( ) + lTimeToLive );
+    }
+}
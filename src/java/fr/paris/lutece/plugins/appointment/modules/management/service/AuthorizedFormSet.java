@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.search.Query;
+
+import fr.paris.lutece.plugins.appointment.business.form.Form;
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+
+/**
+ * The forms a user is authorized to view in the multiview, with the query filtering the appointments of these forms. The query is built once and
+ * reused by all the searches of the user, so that the index searcher can cache its matching documents per segment.
+ */
+public final class AuthorizedFormSet
+{
+    private final List<Form> _listForm;
+    private final int [ ] _tabIdForm;
+    private final List<Integer> _listIdForm;
+    private final Query _query;
+    private final long _lReferenceVersion;
+    private final long _lExpirationTime;
+
+    /**
+     * Constructor
+     * 
+     * @param listForm
+     *            the authorized forms
+     * @param lReferenceVersion
+     *            the version of the reference cache the forms were read from
+     * @param lExpirationTime
+     *            the expiration time
+     */
+    AuthorizedFormSet( List<Form> listForm, long lReferenceVersion, long lExpirationTime )
+    {
+        _listForm = Collections.unmodifiableList( new ArrayList<>( listForm ) );
+        _tabIdForm = new int [ listForm.size( )];
+        for ( int i = 0; i < _tabIdForm.length; i++ )
+        {
+            _tabIdForm [i] = listForm.get( i ).getIdForm( );
+        }
+        Arrays.sort( _tabIdForm );
+
+        List<Integer> listIdForm = new ArrayList<>( _tabIdForm.length );
+        for ( int nIdForm : _tabIdForm )
+        {
+            listIdForm.add( nIdForm );
+        }
+        _listIdForm = Collections.unmodifiableList( listIdForm );
+        _query = IntPoint.newSetQuery( AppointmentSearchItem.FIELD_ID_FORM, _tabIdForm );
+        _lReferenceVersion = lReferenceVersion;
+        _lExpirationTime = lExpirationTime;
+    }
+
+    /**
+     * @return the authorized forms, in the order of the reference cache
+     */
+    public List<Form> getForms( )
+    {
+        return _listForm;
+    }
+
+    /**
+     * @return the sorted ids of the authorized forms
+     */
+    public List<Integer> getIdFormList( )
+    {
+        return _listIdForm;
+    }
+
+    /**
+     * @return the query matching the appointments of the authorized forms
+     */
+    public Query getQuery( )
+    {
+        return _query;
+    }
+
+    /**
+     * Tell if the set is still valid
+     * 
+     * @param lReferenceVersion
+     *            the current version of the reference cache
+     * @return true if the forms have not changed and the set has not expired
+     */
+    boolean isValid( long lReferenceVersion )
+    {
+        return _lReferenceVersion == lReferenceVersion && System.currentTimeMillis( ) < _lExpirationTime;
+    }
+}
@@ -37,10 +37,18 @@ import java.util.List;
 
 import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
 import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentFacetCounts;
+import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentSearchCursor;
 import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentSortConfig;
 
 public interface IAppointmentSearchService
 {
 
     int search( List<AppointmentSearchItem> result, MultiviewFilter filter, int nStartIndex, int nPageSize, AppointmentSortConfig sortConfig );
+
+    int search( List<AppointmentSearchItem> result, MultiviewFilter filter, AppointmentSearchCursor cursor, int nPageIndex, int nPageSize,
+            AppointmentSortConfig sortConfig );
+
+    int search( List<AppointmentSearchItem> result, MultiviewFilter filter, AppointmentSearchCursor cursor, int nPageIndex, int nPageSize,
+            AppointmentSortConfig sortConfig, AppointmentFacetCounts facetCounts );
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+import fr.paris.lutece.plugins.appointment.modules.management.service.IAppointmentSearchService;
+import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentSearchCursor;
+import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentSortConfig;
+import fr.paris.lutece.plugins.appointment.service.AppointmentService;
+import fr.paris.lutece.plugins.appointment.service.export.AppointmentExportService;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentDTO;
+import fr.paris.lutece.plugins.filegenerator.service.IFileGenerator;
+import fr.paris.lutece.portal.service.i18n.I18nService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Excel export of the appointments of a multiview search. The hits are read from the index one batch at a time, and the appointments of each batch
+ * are loaded and written to a streaming workbook as the export of the appointment plugin does, with the same columns and cell types, so that the
+ * memory used depends on the batch size and not on the number of exported appointments.
+ */
+public class MultiviewExcelAppointmentGenerator implements IFileGenerator
+{
+    private static final String PROPERTY_BATCH_SIZE = "appointment-management.export.batchSize";
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int ROW_ACCESS_WINDOW_SIZE = 100;
+
+    private static final String KEY_DESCRIPTION = "module.appointment.management.multiview.export.description";
+    private static final String FILE_NAME_PREFIX = "appointments_";
+    private static final String FILE_EXTENSION = ".xlsx";
+    private static final String FILE_DATE_FORMAT = "yyyyMMdd_HHmmss";
+    private static final String MIME_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    private static final String CELL_DATE_FORMAT = "dd/mm/yyyy";
+    private static final String CELL_DATE_TIME_FORMAT = "dd/mm/yyyy hh:mm";
+
+    private final IAppointmentSearchService _appointmentSearchService;
+    private final MultiviewFilter _filter;
+    private final AppointmentSortConfig _sortConfig;
+    private final List<String> _defaultColumnList;
+    private final Locale _locale;
+    private final String _strFileName;
+
+    /**
+     * Constructor
+     * 
+     * @param appointmentSearchService
+     *            the search service
+     * @param filter
+     *            the filter of the search, which must not be modified during the export. No appointment is exported if it is null
+     * @param sortConfig
+     *            the sort of the search
+     * @param defaultColumnList
+     *            the exported columns
+     * @param locale
+     *            the locale
+     */
+    public MultiviewExcelAppointmentGenerator( IAppointmentSearchService appointmentSearchService, MultiviewFilter filter, AppointmentSortConfig sortConfig,
+            List<String> defaultColumnList, Locale locale )
+    {
+        _appointmentSearchService = appointmentSearchService;
+        _filter = filter;
+        _sortConfig = sortConfig;
+        _defaultColumnList = defaultColumnList;
+        _locale = locale;
+        _strFileName = FILE_NAME_PREFIX + new SimpleDateFormat( FILE_DATE_FORMAT ).format( new Date( ) ) + FILE_EXTENSION;
+    }
+
+    @Override
+    public Path generateFile( ) throws IOException
+    {
+        Path file = Files.createTempFile( FILE_NAME_PREFIX, FILE_EXTENSION );
+        SXSSFWorkbook workbook = new SXSSFWorkbook( ROW_ACCESS_WINDOW_SIZE );
+        try ( OutputStream outputStream = Files.newOutputStream( file ) )
+        {
+            writeAppointments( workbook.createSheet( ) );
+            workbook.write( outputStream );
+        }
+        finally
+        {
+            workbook.dispose( );
+            workbook.close( );
+        }
+        return file;
+    }
+
+    /**
+     * Write the rows of the appointments matching the filter, batch by batch
+     * 
+     * @param sheet
+     *            the sheet
+     */
+    private void writeAppointments( Sheet sheet )
+    {
+        int nBatchSize = AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE );
+        AppointmentSearchCursor cursor = new AppointmentSearchCursor( );
+        CellStyle dateStyle = createDateStyle( sheet.getWorkbook( ), CELL_DATE_FORMAT );
+        CellStyle dateTimeStyle = createDateStyle( sheet.getWorkbook( ), CELL_DATE_TIME_FORMAT );
+        int nRowIndex = 0;
+        int nPageIndex = 1;
+        List<AppointmentSearchItem> listItem;
+        do
+        {
+            listItem = new ArrayList<>( nBatchSize );
+            if ( _filter != null )
+            {
+                _appointmentSearchService.search( listItem, _filter, cursor, nPageIndex, nBatchSize, _sortConfig );
+            }
+
+            // The first line of each batch holds the headers, which are only written once
+            List<List<Object>> listLines = AppointmentExportService.buildExcelFileWithAppointments( _defaultColumnList, _locale,
+                    findAppointments( listItem ), new ArrayList<>( ) );
+            for ( int i = ( nRowIndex == 0 ) ? 0 : 1; i < listLines.size( ); i++ )
+            {
+                writeRow( sheet.createRow( nRowIndex++ ), listLines.get( i ), dateStyle, dateTimeStyle );
+            }
+            nPageIndex++;
+        }
+        while ( listItem.size( ) == nBatchSize );
+
+        AppLogService.debug( "Multiview export : " + Math.max( 0, nRowIndex - 1 ) + " appointments written" );
+    }
+
+    /**
+     * Load the appointments of a batch of hits, in the order of the hits, as the export of the appointment plugin does
+     * 
+     * @param listItem
+     *            the hits
+     * @return the appointments
+     */
+    private List<AppointmentDTO> findAppointments( List<AppointmentSearchItem> listItem )
+    {
+        List<AppointmentDTO> listAppointment = new ArrayList<>( listItem.size( ) );
+        for ( AppointmentSearchItem item : listItem )
+        {
+            AppointmentDTO appointment = AppointmentService.buildAppointmentDTOFromIdAppointment( item.getIdAppointment( ) );
+            if ( appointment != null )
+            {
+                listAppointment.add( appointment );
+            }
+        }
+        return listAppointment;
+    }
+
+    /**
+     * Create the style of the date cells
+     * 
+     * @param workbook
+     *            the workbook
+     * @param strFormat
+     *            the date format
+     * @return the style
+     */
+    private static CellStyle createDateStyle( Workbook workbook, String strFormat )
+    {
+        CellStyle style = workbook.createCellStyle( );
+        style.setDataFormat( workbook.getCreationHelper( ).createDataFormat( ).getFormat( strFormat ) );
+        return style;
+    }
+
+    /**
+     * Write the values of a line in a row, keeping the type of each value
+     * 
+     * @param row
+     *            the row
+     * @param listValues
+     *            the values
+     * @param dateStyle
+     *            the style of the date cells
+     * @param dateTimeStyle
+     *            the style of the date and time cells
+     */
+    private void writeRow( Row row, List<Object> listValues, CellStyle dateStyle, CellStyle dateTimeStyle )
+    {
+        for ( int i = 0; i < listValues.size( ); i++ )
+        {
+            Object value = listValues.get( i );
+            Cell cell = row.createCell( i );
+            if ( value instanceof Number )
+            {
+                cell.setCellValue( ( (Number) value ).doubleValue( ) );
+            }
+            else
+                if ( value instanceof Boolean )
+                {
+                    cell.setCellValue( (Boolean) value );
+                }
+                else
+                    if ( value instanceof Date )
+                    {
+                        cell.setCellValue( (Date) value );
+                        cell.setCellStyle( dateTimeStyle );
+                    }
+                    else
+                        if ( value instanceof LocalDateTime )
+                        {
+                            cell.setCellValue( (LocalDateTime) value );
+                            cell.setCellStyle( dateTimeStyle );
+                        }
+                        else
+                            if ( value instanceof LocalDate )
+                            {
+                                cell.setCellValue( (LocalDate) value );
+                                cell.setCellStyle( dateStyle );
+                            }
+                            else
+                                if ( value != null )
+                                {
+                                    cell.setCellValue( value.toString( ) );
+                                }
+        }
+    }
+
+    @Override
+    public String getFileName( )
+    {
+        return _strFileName;
+    }
+
+    @Override
+    public String getMimeType( )
+    {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public String getDescription( )
+    {
+        return I18nService.getLocalizedString( KEY_DESCRIPTION, _locale );
+    }
+
+    @Override
+    public boolean isZippable( )
+    {
+        return false;
+    }
+}
@@ -0,0 +1,750 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * An appointment index, split into partitions by period of start date. Each partition has its own directory in the directory of the index, except when
+ * the index is not partitioned : its single partition is then the directory of the index itself. The appointments starting before the archive cutoff
+ * are moved to an archive, a single partition which is frozen most of the time and only opened when it is needed : by the searches whose date range
+ * reaches before the archive cutoff, and by the changes of the archived appointments, whose ids are kept in memory. The searches only read the
+ * partitions overlapping their date range, through a composite reader.
+ */
+class AppointmentIndex implements Closeable
+{
+    /**
+     * Name of the directory of the archive
+     */
+    static final String DIRECTORY_ARCHIVE = "archive";
+
+    private static final String FILE_ARCHIVE_CUTOFF = "archive_cutoff";
+    private static final String SUFFIX_TMP_FILE = ".tmp";
+
+    private final Path _path;
+    private final AppointmentIndexPeriod _period;
+    private final Analyzer _analyzer;
+    private final double _dRamBufferSizeMB;
+    private final Map<String, AppointmentIndexPartition> _mapPartition = new ConcurrentSkipListMap<>( );
+    private boolean _bLayoutValid = true;
+    private AppointmentIndexPartition _archive;
+    private volatile long _lArchiveCutoff = Long.MIN_VALUE;
+    // The ids of the archived appointments, loaded before the first change of the archive
+    private BitSet _archivedIds;
+
+    // The reference of the factory, and one per acquired searcher
+    private final AtomicInteger _nRefCount = new AtomicInteger( 1 );
+
+    /**
+     * Open an index, creating it if it does not exist. The partitions of another period, left by a change of the configuration, are opened too and
+     * searched whatever the date range, until the index is rebuilt.
+     * 
+     * @param path
+     *            the directory of the index
+     * @param period
+     *            the period of the partitions
+     * @param analyzer
+     *            the analyzer of the index
+     * @param dRamBufferSizeMB
+     *            the size of the buffer of the writer of each partition
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    AppointmentIndex( Path path, AppointmentIndexPeriod period, Analyzer analyzer, double dRamBufferSizeMB ) throws IOException
+    {
+        _path = path;
+        _period = period;
+        _analyzer = analyzer;
+        _dRamBufferSizeMB = dRamBufferSizeMB;
+
+        try ( Directory directory = FSDirectory.open( path ) )
+        {
+            if ( DirectoryReader.indexExists( directory ) )
+            {
+                openPartition( StringUtils.EMPTY );
+                _bLayoutValid = period == AppointmentIndexPeriod.NONE;
+            }
+        }
+        List<String> listPartitionName;
+        try ( Stream<Path> stream = Files.list( path ) )
+        {
+            listPartitionName = stream.filter( Files::isDirectory ).map( p -> p.getFileName( ).toString( ) )
+                    .filter( strName -> strName.startsWith( AppointmentIndexPeriod.PREFIX_PARTITION_DIRECTORY ) ).collect( Collectors.toList( ) );
+        }
+        for ( String strPartitionName : listPartitionName )
+        {
+            openPartition( strPartitionName );
+            _bLayoutValid &= period.getBounds( strPartitionName ) != null;
+        }
+
+        Path pathArchiveCutoff = path.resolve( FILE_ARCHIVE_CUTOFF );
+        if ( Files.exists( pathArchiveCutoff ) )
+        {
+            _lArchiveCutoff = Long.parseLong( new String( Files.readAllBytes( pathArchiveCutoff ), StandardCharsets.UTF_8 ).trim( ) );
+        }
+    }
+
+    /**
+     * Get the archive cutoff : the appointments starting before it are in the archive, the others in the partitions
+     * 
+     * @return the archive cutoff, in epoch milliseconds, or Long.MIN_VALUE if nothing is archived
+     */
+    long getArchiveCutoff( )
+    {
+        return _lArchiveCutoff;
+    }
+
+    /**
+     * Move the archive cutoff. The appointments of the partitions starting before the new cutoff must then be moved with {@link #moveToArchive()}.
+     * 
+     * @param lArchiveCutoff
+     *            the archive cutoff, in epoch milliseconds
+     * @throws IOException
+     *             - if the archive cutoff cannot be saved
+     */
+    synchronized void setArchiveCutoff( long lArchiveCutoff ) throws IOException
+    {
+        writeArchiveCutoff( _path, lArchiveCutoff );
+        _lArchiveCutoff = lArchiveCutoff;
+    }
+
+    /**
+     * Atomically replace the archive cutoff file of an index
+     * 
+     * @param path
+     *            the directory of the index
+     * @param lArchiveCutoff
+     *            the archive cutoff, in epoch milliseconds
+     * @throws IOException
+     *             - if the archive cutoff cannot be saved
+     */
+    static void writeArchiveCutoff( Path path, long lArchiveCutoff ) throws IOException
+    {
+        Path pathTmp = path.resolve( FILE_ARCHIVE_CUTOFF + SUFFIX_TMP_FILE );
+        Files.write( pathTmp, String.valueOf( lArchiveCutoff ).getBytes( StandardCharsets.UTF_8 ) );
+        Files.move( pathTmp, path.resolve( FILE_ARCHIVE_CUTOFF ), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Move the appointments of the partitions starting before the archive cutoff to the archive. Their documents are copied as they are, then deleted
+     * from the partitions, each partition being committed with the archive.
+     * 
+     * @return the number of moved appointments
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    int moveToArchive( ) throws IOException
+    {
+        long lArchiveCutoff = _lArchiveCutoff;
+        if ( lArchiveCutoff == Long.MIN_VALUE )
+        {
+            return 0;
+        }
+        Query query = LongPoint.newRangeQuery( AppointmentSearchItem.FIELD_START_DATE, Long.MIN_VALUE, lArchiveCutoff - 1 );
+        int nbDocuments = 0;
+        for ( AppointmentIndexPartition partition : _mapPartition.values( ) )
+        {
+            if ( partition.overlaps( Long.MIN_VALUE, lArchiveCutoff - 1 ) )
+            {
+                loadArchivedIds( );
+                List<Integer> listIdAppointment = partition.moveDocuments( query, getArchive( true ) );
+                addArchivedIds( listIdAppointment );
+                nbDocuments += listIdAppointment.size( );
+            }
+        }
+        return nbDocuments;
+    }
+
+    /**
+     * Find the appointments of the partitions starting before a date
+     * 
+     * @param lDate
+     *            the date, in epoch milliseconds
+     * @return the ids of the appointments
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    List<Integer> findIdsStartingBefore( long lDate ) throws IOException
+    {
+        List<Integer> listIdAppointment = new ArrayList<>( );
+        if ( lDate == Long.MIN_VALUE )
+        {
+            return listIdAppointment;
+        }
+        Query query = LongPoint.newRangeQuery( AppointmentSearchItem.FIELD_START_DATE, Long.MIN_VALUE, lDate - 1 );
+        for ( AppointmentIndexPartition partition : _mapPartition.values( ) )
+        {
+            if ( partition.overlaps( Long.MIN_VALUE, lDate - 1 ) )
+            {
+                DirectoryReader reader = partition.acquire( );
+                try
+                {
+                    new IndexSearcher( reader ).search( query, new IdCollector( listIdAppointment ) );
+                }
+                finally
+                {
+                    reader.decRef( );
+                }
+            }
+        }
+        return listIdAppointment;
+    }
+
+    /**
+     * Copy the archive of another index into the archive of this one, with its cutoff. The archived appointments need not be loaded and analyzed again.
+     * 
+     * @param index
+     *            the index to copy the archive from
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    void copyArchive( AppointmentIndex index ) throws IOException
+    {
+        AppointmentIndexPartition archive = index.getArchive( false );
+        if ( archive == null )
+        {
+            return;
+        }
+        setArchiveCutoff( index.getArchiveCutoff( ) );
+        loadArchivedIds( );
+        DirectoryReader reader = archive.acquire( );
+        try
+        {
+            getArchive( true ).addIndexes( reader );
+            addArchivedIds( index.getArchivedIds( ) );
+        }
+        finally
+        {
+            reader.decRef( );
+        }
+    }
+
+    /**
+     * Tell whether the index must be rebuilt, because a partition is not sorted or belongs to another period
+     * 
+     * @return true if the index must be rebuilt
+     */
+    boolean isRebuildNeeded( )
+    {
+        return !_bLayoutValid || _mapPartition.values( ).stream( ).anyMatch( partition -> !partition.isSorted( ) );
+    }
+
+    /**
+     * Add documents to the partitions of their start dates
+     * 
+     * @param listDocument
+     *            the documents
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    void addDocuments( List<Document> listDocument ) throws IOException
+    {
+        Map<String, List<Document>> mapDocumentByPartition = new HashMap<>( );
+        for ( Document document : listDocument )
+        {
+            long lStartDate = getStartDate( document );
+            String strPartitionName = ( lStartDate < _lArchiveCutoff ) ? DIRECTORY_ARCHIVE : _period.getPartitionName( lStartDate );
+            mapDocumentByPartition.computeIfAbsent( strPartitionName, k -> new ArrayList<>( ) ).add( document );
+        }
+        List<Document> listArchivedDocument = mapDocumentByPartition.get( DIRECTORY_ARCHIVE );
+        if ( listArchivedDocument != null )
+        {
+            loadArchivedIds( );
+            addArchivedIds( listArchivedDocument.stream( ).map( AppointmentIndex::getIdAppointment ).collect( Collectors.toList( ) ) );
+        }
+        for ( Map.Entry<String, List<Document>> entry : mapDocumentByPartition.entrySet( ) )
+        {
+            getPartition( entry.getKey( ) ).addDocuments( entry.getValue( ) );
+        }
+    }
+
+    /**
+     * Delete the documents of some appointments, whatever their partitions. The archive is only opened for the archived appointments.
+     * 
+     * @param listIdAppointment
+     *            the ids of the appointments
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    void deleteDocuments( Collection<Integer> listIdAppointment ) throws IOException
+    {
+        if ( listIdAppointment.isEmpty( ) )
+        {
+            return;
+        }
+        Query query = IntPoint.newSetQuery( AppointmentSearchItem.FIELD_ID_APPOINTMENT, listIdAppointment );
+        for ( AppointmentIndexPartition partition : _mapPartition.values( ) )
+        {
+            partition.deleteDocuments( query );
+        }
+
+        List<Integer> listIdArchived = removeArchivedIds( listIdAppointment );
+        if ( !listIdArchived.isEmpty( ) )
+        {
+            getArchive( true ).deleteDocuments( IntPoint.newSetQuery( AppointmentSearchItem.FIELD_ID_APPOINTMENT, listIdArchived ) );
+        }
+    }
+
+    /**
+     * Load the ids of the archived appointments, on first call, from the last commit of the archive, which is not kept open. It is called before each
+     * change of the archive, so that the last commit holds all the archived appointments when they are loaded.
+     * 
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private synchronized void loadArchivedIds( ) throws IOException
+    {
+        if ( _archivedIds != null )
+        {
+            return;
+        }
+        BitSet archivedIds = new BitSet( );
+        Path pathArchive = _path.resolve( DIRECTORY_ARCHIVE );
+        if ( Files.isDirectory( pathArchive ) )
+        {
+            try ( Directory directory = FSDirectory.open( pathArchive ) )
+            {
+                if ( DirectoryReader.indexExists( directory ) )
+                {
+                    List<Integer> listIdAppointment = new ArrayList<>( );
+                    try ( DirectoryReader reader = DirectoryReader.open( directory ) )
+                    {
+                        new IndexSearcher( reader ).search( new MatchAllDocsQuery( ), new IdCollector( listIdAppointment ) );
+                    }
+                    listIdAppointment.forEach( archivedIds::set );
+                }
+            }
+        }
+        _archivedIds = archivedIds;
+    }
+
+    /**
+     * Get the ids of the archived appointments
+     * 
+     * @return the ids of the archived appointments
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private synchronized List<Integer> getArchivedIds( ) throws IOException
+    {
+        loadArchivedIds( );
+        return _archivedIds.stream( ).boxed( ).collect( Collectors.toList( ) );
+    }
+
+    /**
+     * Record appointments as archived
+     * 
+     * @param listIdAppointment
+     *            the ids of the appointments
+     */
+    private synchronized void addArchivedIds( Collection<Integer> listIdAppointment )
+    {
+        listIdAppointment.forEach( _archivedIds::set );
+    }
+
+    /**
+     * Remove appointments from the archived ones
+     * 
+     * @param listIdAppointment
+     *            the ids of the appointments
+     * @return the ids of the appointments which were archived
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private synchronized List<Integer> removeArchivedIds( Collection<Integer> listIdAppointment ) throws IOException
+    {
+        loadArchivedIds( );
+        List<Integer> listIdArchived = new ArrayList<>( );
+        for ( Integer nIdAppointment : listIdAppointment )
+        {
+            if ( _archivedIds.get( nIdAppointment ) )
+            {
+                _archivedIds.clear( nIdAppointment );
+                listIdArchived.add( nIdAppointment );
+            }
+        }
+        return listIdArchived;
+    }
+
+    /**
+     * Commit the changes of all the partitions
+     * 
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    void commit( ) throws IOException
+    {
+        for ( AppointmentIndexPartition partition : getOpenPartitions( ) )
+        {
+            partition.commit( );
+        }
+    }
+
+    /**
+     * Freeze the partitions whose period is over and which have not changed for a while
+     * 
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    void freeze( ) throws IOException
+    {
+        long lNow = System.currentTimeMillis( );
+        for ( AppointmentIndexPartition partition : getOpenPartitions( ) )
+        {
+            if ( partition.freeze( lNow ) )
+            {
+                AppLogService.info( "Appointment index partition " + partition.getName( ) + " frozen" );
+            }
+        }
+    }
+
+    /**
+     * Refresh the readers of the partitions so that they see the last changes
+     * 
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    void refresh( ) throws IOException
+    {
+        for ( AppointmentIndexPartition partition : getOpenPartitions( ) )
+        {
+            partition.refresh( );
+        }
+    }
+
+    /**
+     * Acquire a reader on the partitions which may hold appointments starting in a range. It must be given back with {@link IndexReader#decRef()}. The
+     * archive is read when the range reaches before the archive cutoff, as the ranges without lower bound do.
+     * 
+     * @param lLower
+     *            the lower bound of the range, inclusive
+     * @param lUpper
+     *            the upper bound of the range, inclusive
+     * @return the reader of the single partition, or a composite reader of the partitions
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    IndexReader acquireReader( long lLower, long lUpper ) throws IOException
+    {
+        List<IndexReader> listReader = new ArrayList<>( );
+        try
+        {
+            for ( AppointmentIndexPartition partition : _mapPartition.values( ) )
+            {
+                if ( partition.overlaps( lLower, lUpper ) )
+                {
+                    listReader.add( partition.acquire( ) );
+                }
+            }
+            AppointmentIndexPartition archive = ( lLower < _lArchiveCutoff ) ? getArchive( false ) : null;
+            if ( archive != null )
+            {
+                listReader.add( archive.acquire( ) );
+            }
+            if ( listReader.size( ) == 1 )
+            {
+                return listReader.remove( 0 );
+            }
+            // The composite reader holds its own reference on each partition reader
+            return new MultiReader( listReader.toArray( new IndexReader [ listReader.size( )] ), false );
+        }
+        finally
+        {
+            for ( IndexReader reader : listReader )
+            {
+                reader.decRef( );
+            }
+        }
+    }
+
+    /**
+     * Take a reference on the index, unless all its references are already released
+     * 
+     * @return true if the reference is taken, false if the index is being closed
+     */
+    boolean tryIncRef( )
+    {
+        int nRefCount = _nRefCount.get( );
+        while ( nRefCount > 0 )
+        {
+            if ( _nRefCount.compareAndSet( nRefCount, nRefCount + 1 ) )
+            {
+                return true;
+            }
+            nRefCount = _nRefCount.get( );
+        }
+        return false;
+    }
+
+    /**
+     * Release a reference on the index
+     * 
+     * @return true if it was the last reference, the index must then be closed
+     */
+    boolean decRef( )
+    {
+        return _nRefCount.decrementAndGet( ) == 0;
+    }
+
+    /**
+     * Close the index, discarding its uncommitted changes
+     */
+    void rollback( )
+    {
+        for ( AppointmentIndexPartition partition : getOpenPartitions( ) )
+        {
+            try
+            {
+                partition.rollback( );
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( "Unable to close the appointment index partition " + partition.getName( ), e );
+            }
+        }
+    }
+
+    @Override
+    public void close( ) throws IOException
+    {
+        for ( AppointmentIndexPartition partition : getOpenPartitions( ) )
+        {
+            partition.close( );
+        }
+    }
+
+    /**
+     * Get a partition, creating it if it does not exist yet
+     * 
+     * @param strName
+     *            the name of the partition
+     * @return the partition
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private synchronized AppointmentIndexPartition getPartition( String strName ) throws IOException
+    {
+        if ( DIRECTORY_ARCHIVE.equals( strName ) )
+        {
+            return getArchive( true );
+        }
+        AppointmentIndexPartition partition = _mapPartition.get( strName );
+        if ( partition == null )
+        {
+            partition = openPartition( strName );
+        }
+        return partition;
+    }
+
+    /**
+     * Get the archive, opening it on first call. It is always frozen once it has not changed for a while.
+     * 
+     * @param bCreate
+     *            true to create the archive if it does not exist
+     * @return the archive, or null if it does not exist and must not be created
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private synchronized AppointmentIndexPartition getArchive( boolean bCreate ) throws IOException
+    {
+        if ( _archive == null )
+        {
+            Path pathArchive = _path.resolve( DIRECTORY_ARCHIVE );
+            if ( !bCreate )
+            {
+                if ( !Files.isDirectory( pathArchive ) )
+                {
+                    return null;
+                }
+                try ( Directory directory = FSDirectory.open( pathArchive ) )
+                {
+                    if ( !DirectoryReader.indexExists( directory ) )
+                    {
+                        return null;
+                    }
+                }
+            }
+            _archive = new AppointmentIndexPartition( DIRECTORY_ARCHIVE, Files.createDirectories( pathArchive ), Long.MIN_VALUE, Long.MIN_VALUE, _analyzer,
+                    _dRamBufferSizeMB );
+        }
+        return _archive;
+    }
+
+    /**
+     * Get the open partitions, with the archive if it is open
+     * 
+     * @return the partitions
+     */
+    private synchronized List<AppointmentIndexPartition> getOpenPartitions( )
+    {
+        List<AppointmentIndexPartition> listPartition = new ArrayList<>( _mapPartition.values( ) );
+        if ( _archive != null )
+        {
+            listPartition.add( _archive );
+        }
+        return listPartition;
+    }
+
+    /**
+     * Open a partition. A partition of another period may hold any start date
+     * 
+     * @param strName
+     *            the name of the partition
+     * @return the partition
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private AppointmentIndexPartition openPartition( String strName ) throws IOException
+    {
+        Path pathPartition = StringUtils.isEmpty( strName ) ? _path : Files.createDirectories( _path.resolve( strName ) );
+        long [ ] bounds = _period.getBounds( strName );
+        long lStart = ( bounds != null ) ? bounds [0] : Long.MIN_VALUE;
+        long lEnd = ( bounds != null ) ? bounds [1] : Long.MAX_VALUE;
+
+        AppointmentIndexPartition partition = new AppointmentIndexPartition( strName, pathPartition, lStart, lEnd, _analyzer, _dRamBufferSizeMB );
+        _mapPartition.put( strName, partition );
+        return partition;
+    }
+
+    /**
+     * Get the appointment id of a document
+     * 
+     * @param document
+     *            the document
+     * @return the appointment id
+     */
+    private static int getIdAppointment( Document document )
+    {
+        for ( IndexableField field : document.getFields( AppointmentSearchItem.FIELD_ID_APPOINTMENT ) )
+        {
+            if ( field.numericValue( ) != null )
+            {
+                return field.numericValue( ).intValue( );
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the start date of a document
+     * 
+     * @param document
+     *            the document
+     * @return the start date, in epoch milliseconds
+     */
+    private static long getStartDate( Document document )
+    {
+        for ( IndexableField field : document.getFields( AppointmentSearchItem.FIELD_START_DATE ) )
+        {
+            if ( field.numericValue( ) != null )
+            {
+                return field.numericValue( ).longValue( );
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Collector of the appointment ids of the hits
+     */
+    private static final class IdCollector extends SimpleCollector
+    {
+        private final List<Integer> _listIdAppointment;
+        private NumericDocValues _idAppointmentValues;
+
+        IdCollector( List<Integer> listIdAppointment )
+        {
+            _listIdAppointment = listIdAppointment;
+        }
+
+        @Override
+        protected void doSetNextReader( LeafReaderContext context ) throws IOException
+        {
+            _idAppointmentValues = DocValues.getNumeric( context.reader( ), AppointmentSearchItem.FIELD_ID_APPOINTMENT );
+        }
+
+        @Override
+        public void collect( int doc ) throws IOException
+        {
+            if ( _idAppointmentValues.advanceExact( doc ) )
+            {
+                _listIdAppointment.add( (int) _idAppointmentValues.longValue( ) );
+            }
+        }
+
+        @Override
+        public ScoreMode scoreMode( )
+        {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.sql.Timestamp;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.index.AppointmentIndexChange;
+import fr.paris.lutece.plugins.appointment.modules.management.business.index.AppointmentIndexChangeHome;
+import fr.paris.lutece.portal.business.indexeraction.IndexerAction;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Change log of the appointment index, shared by the nodes of a cluster through the database. Each node records the changes of appointments made on it,
+ * and each node which indexes the appointments consumes the changes recorded by the other nodes, in the order of the log, from its own cursor. The
+ * changes consumed by all the nodes are removed from the log, and the cursors of the nodes which no longer consume it are removed after a retention
+ * delay, so that they do not keep the log growing.
+ * <p>
+ * The ids of the log are expected to grow by 1 (auto_increment_increment = 1 on MySQL). A missing id, left by an insert not committed yet or rolled
+ * back, is never skipped on a delay : the node inserts a row carrying no change at this id, which waits for the transaction holding the id and
+ * fails if it commits the id. With another increment, every id is followed by a gap filled this way.
+ * </p>
+ */
+public class AppointmentIndexChangeLog
+{
+    private static final String PROPERTY_ENABLE = "appointment-management.index.changeLog.enable";
+    private static final String PROPERTY_NODE_NAME = "appointment-management.index.changeLog.nodeName";
+    private static final int GAP_CHECK_DELAY = AppPropertiesService.getPropertyInt( "appointment-management.index.changeLog.gapCheckDelay", 1 );
+    private static final int CURSOR_RETENTION = AppPropertiesService.getPropertyInt( "appointment-management.index.changeLog.cursorRetention", 7 );
+    private static final int POLL_SIZE = 1000;
+    private static final long CLEANUP_INTERVAL = 3600000L;
+    private static final int MAX_NODE_NAME_LENGTH = 255;
+
+    @Inject
+    private LuceneAppointmentIndexFactory _luceneAppointmentIndexFactory;
+
+    private String _strNodeName;
+    private Integer _nCursor;
+    private int _nIdMissingChange;
+    private long _lMissingSince;
+    private long _lLastCleanup;
+
+    /**
+     * @return true if the changes are recorded in the log, which is needed as soon as several nodes share the database
+     */
+    public boolean isEnabled( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_ENABLE, false );
+    }
+
+    /**
+     * Record a change made on this node, for the other nodes
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @param nIdTask
+     *            the task, one of IndexerAction.TASK_CREATE, TASK_MODIFY or TASK_DELETE
+     */
+    public void add( int nIdAppointment, int nIdTask )
+    {
+        AppointmentIndexChange change = new AppointmentIndexChange( );
+        change.setIdAppointment( nIdAppointment );
+        change.setIdTask( nIdTask );
+        change.setNodeName( getNodeName( ) );
+        try
+        {
+            AppointmentIndexChangeHome.create( change );
+        }
+        catch( AppException e )
+        {
+            // The appointment is saved anyway, the other nodes see it at their next rebuild
+            AppLogService.error( "Unable to record the change of the appointment " + nIdAppointment + " in the index change log", e );
+        }
+    }
+
+    /**
+     * Open the cursor of this node. A node without a cursor, either new in the cluster or stopped for longer than the retention delay, starts from the
+     * end of the log : the changes it missed are unknown, so its index must be rebuilt.
+     * 
+     * @return true if the index of this node must be rebuilt
+     */
+    public synchronized boolean open( )
+    {
+        _nCursor = AppointmentIndexChangeHome.findCursor( getNodeName( ) );
+        if ( _nCursor != null )
+        {
+            return false;
+        }
+        _nCursor = AppointmentIndexChangeHome.findLastIdChange( );
+        AppointmentIndexChangeHome.createCursor( getNodeName( ), _nCursor );
+        AppLogService.info( "Appointment index change log consumed by the new node " + getNodeName( ) );
+        return true;
+    }
+
+    /**
+     * Add the changes recorded by the other nodes since the cursor of this node to the queue of the pending changes, then move the cursor. The ids of
+     * the log follow the order of the inserts, not of their commits : the cursor stops before a missing id, whose insert may not be committed yet,
+     * until the database confirms that the id is rolled back.
+     * 
+     * @param queue
+     *            the queue of the pending changes
+     * @return the number of changes added to the queue
+     */
+    public synchronized int poll( AppointmentIndexChangeQueue queue )
+    {
+        if ( _nCursor == null )
+        {
+            return 0;
+        }
+        int nCursor = _nCursor;
+        int nAdded = 0;
+        List<AppointmentIndexChange> listChange = AppointmentIndexChangeHome.findAfter( nCursor, POLL_SIZE );
+        for ( AppointmentIndexChange change : listChange )
+        {
+            if ( change.getIdChange( ) != nCursor + 1 )
+            {
+                nCursor = skipRolledBackChanges( nCursor, change.getIdChange( ) );
+                if ( nCursor != change.getIdChange( ) - 1 )
+                {
+                    break;
+                }
+            }
+            if ( change.getIdTask( ) != AppointmentIndexChange.TASK_GAP && !getNodeName( ).equals( change.getNodeName( ) ) )
+            {
+                // The change may be consumed again after a crash, so a creation is added as a modification
+                int nIdTask = ( change.getIdTask( ) == IndexerAction.TASK_CREATE ) ? IndexerAction.TASK_MODIFY : change.getIdTask( );
+                queue.add( change.getIdAppointment( ), nIdTask );
+                nAdded++;
+            }
+            nCursor = change.getIdChange( );
+        }
+
+        // The cursor is updated even when it does not move, its date tells that the node is alive
+        AppointmentIndexChangeHome.updateCursor( getNodeName( ), nCursor );
+        _nCursor = nCursor;
+        cleanUp( );
+        return nAdded;
+    }
+
+    /**
+     * Skip the missing ids before a change of the log which are confirmed as rolled back by the database. A missing id is checked once the cursor has
+     * stopped before it for the gap check delay, so that an insert about to be committed is not waited for : a row carrying no change is inserted at
+     * the id, which waits for the transaction holding the id. The row is inserted if the transaction is rolled back, and fails if the transaction
+     * commits the id, which is then consumed at the next poll.
+     * 
+     * @param nCursor
+     *            the cursor
+     * @param nIdNextChange
+     *            the id of the change following the missing ids
+     * @return the new cursor, the id before the next change if all the missing ids are skipped
+     */
+    private int skipRolledBackChanges( int nCursor, int nIdNextChange )
+    {
+        long lNow = System.currentTimeMillis( );
+        if ( nCursor + 1 != _nIdMissingChange )
+        {
+            _nIdMissingChange = nCursor + 1;
+            _lMissingSince = lNow;
+        }
+        if ( lNow - _lMissingSince < GAP_CHECK_DELAY * 1000L )
+        {
+            return nCursor;
+        }
+
+        int nSkipped = nCursor;
+        while ( nSkipped + 1 < nIdNextChange )
+        {
+            try
+            {
+                AppointmentIndexChangeHome.createGap( nSkipped + 1, getNodeName( ) );
+            }
+            catch( AppException e )
+            {
+                AppLogService.info( "The change " + ( nSkipped + 1 ) + " of the appointment index change log is not rolled back yet : " + e.getMessage( ) );
+                break;
+            }
+            nSkipped++;
+            AppLogService.warn( "The id " + nSkipped + " of the appointment index change log is rolled back or unused, it is skipped" );
+        }
+        return nSkipped;
+    }
+
+    /**
+     * Remove the cursors of the nodes which have not consumed the log for longer than the retention delay, then the changes consumed by all the
+     * remaining nodes. Run once per cleanup interval
+     */
+    private void cleanUp( )
+    {
+        long lNow = System.currentTimeMillis( );
+        if ( lNow - _lLastCleanup < CLEANUP_INTERVAL )
+        {
+            return;
+        }
+        _lLastCleanup = lNow;
+        AppointmentIndexChangeHome.removeCursorsUpdatedBefore( new Timestamp( lNow - CURSOR_RETENTION * 86400000L ) );
+        AppointmentIndexChangeHome.removeConsumed( );
+    }
+
+    /**
+     * Get the name of this node in the log : the configured one, or the host name followed by the index path, so that two webapps of a host have
+     * different names
+     * 
+     * @return the name of the node
+     */
+    private synchronized String getNodeName( )
+    {
+        if ( _strNodeName == null )
+        {
+            String strNodeName = AppPropertiesService.getProperty( PROPERTY_NODE_NAME );
+            if ( StringUtils.isBlank( strNodeName ) )
+            {
+                try
+                {
+                    strNodeName = InetAddress.getLocalHost( ).getHostName( ) + ':' + _luceneAppointmentIndexFactory.getIndexRootPath( );
+                }
+                catch( IOException e )
+                {
+                    AppLogService.error( "Unable to get the host name or the index path of the node", e );
+                    strNodeName = "localhost";
+                }
+            }
+            _strNodeName = StringUtils.left( strNodeName.trim( ), MAX_NODE_NAME_LENGTH );
+        }
+        return _strNodeName;
+    }
+}
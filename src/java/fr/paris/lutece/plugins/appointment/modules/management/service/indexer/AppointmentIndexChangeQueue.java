@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.portal.business.indexeraction.IndexerAction;
+import fr.paris.lutece.portal.business.indexeraction.IndexerActionFilter;
+import fr.paris.lutece.portal.business.indexeraction.IndexerActionHome;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Queue of the pending changes of the appointment index. The changes are coalesced by appointment : successive creations and modifications of an
+ * appointment give a single upsert, and an appointment created then removed before being indexed gives nothing. Each change is appended to a journal
+ * kept next to the index, and written to the disk before it is queued, so that the pending changes survive a restart or a crash; the journal is
+ * compacted to the pending changes once the index is committed.
+ */
+public class AppointmentIndexChangeQueue
+{
+    private static final String SUFFIX_TMP_FILE = ".tmp";
+    private static final char SEPARATOR = ' ';
+
+    @Inject
+    private LuceneAppointmentIndexFactory _luceneAppointmentIndexFactory;
+
+    private Map<Integer, Integer> _mapPendingTask = new LinkedHashMap<>( );
+    private Writer _journalWriter;
+    private boolean _bLoaded;
+
+    /**
+     * Add a change to the queue
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @param nIdTask
+     *            the task, one of IndexerAction.TASK_CREATE, TASK_MODIFY or TASK_DELETE
+     */
+    public synchronized void add( int nIdAppointment, int nIdTask )
+    {
+        load( );
+        coalesce( _mapPendingTask, nIdAppointment, nIdTask );
+        appendToJournal( nIdAppointment, nIdTask );
+    }
+
+    /**
+     * Take all the pending changes. The changes stay in the journal until the next call to {@link #compact()}
+     * 
+     * @return the coalesced task of each changed appointment, by appointment id
+     */
+    public synchronized Map<Integer, Integer> drain( )
+    {
+        load( );
+        Map<Integer, Integer> mapTask = _mapPendingTask;
+        _mapPendingTask = new LinkedHashMap<>( );
+        return mapTask;
+    }
+
+    /**
+     * @return true if there is no pending change
+     */
+    public synchronized boolean isEmpty( )
+    {
+        load( );
+        return _mapPendingTask.isEmpty( );
+    }
+
+    /**
+     * Rewrite the journal with the pending changes only. To be called once the changes taken from the queue are durably committed to the index
+     */
+    public synchronized void compact( )
+    {
+        load( );
+        try
+        {
+            closeJournal( );
+            Path pathJournal = _luceneAppointmentIndexFactory.getChangeJournalPath( );
+            Path pathTmp = pathJournal.resolveSibling( pathJournal.getFileName( ) + SUFFIX_TMP_FILE );
+            // The journal is written to the disk before it replaces the previous one
+            try ( BufferedWriter writer = Files.newBufferedWriter( pathTmp, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.DSYNC ) )
+            {
+                for ( Map.Entry<Integer, Integer> entry : _mapPendingTask.entrySet( ) )
+                {
+                    writer.write( formatLine( entry.getKey( ), entry.getValue( ) ) );
+                }
+            }
+            Files.move( pathTmp, pathJournal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to compact the appointment index journal", e );
+        }
+    }
+
+    /**
+     * Close the journal
+     */
+    public synchronized void close( )
+    {
+        closeJournal( );
+    }
+
+    /**
+     * Coalesce a change with the pending task of the appointment
+     * 
+     * @param mapTask
+     *            the pending tasks
+     * @param nIdAppointment
+     *            the appointment id
+     * @param nIdTask
+     *            the task of the change
+     */
+    static void coalesce( Map<Integer, Integer> mapTask, int nIdAppointment, int nIdTask )
+    {
+        mapTask.compute( nIdAppointment, ( id, nPreviousTask ) -> {
+            if ( nPreviousTask == null )
+            {
+                return nIdTask;
+            }
+            if ( nIdTask == IndexerAction.TASK_DELETE )
+            {
+                // An appointment created and removed before being indexed is not in the index
+                return ( nPreviousTask == IndexerAction.TASK_CREATE ) ? null : IndexerAction.TASK_DELETE;
+            }
+            if ( nPreviousTask == IndexerAction.TASK_DELETE )
+            {
+                return IndexerAction.TASK_MODIFY;
+            }
+            return nPreviousTask;
+        } );
+    }
+
+    /**
+     * Load the changes of the journal and the changes left in the indexer action table by the previous versions, on first use
+     */
+    private void load( )
+    {
+        if ( _bLoaded )
+        {
+            return;
+        }
+        _bLoaded = true;
+
+        try
+        {
+            readJournal( _luceneAppointmentIndexFactory.getChangeJournalPath( ), _mapPendingTask );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to read the appointment index journal", e );
+        }
+
+        loadIndexerActions( );
+
+        if ( !_mapPendingTask.isEmpty( ) )
+        {
+            AppLogService.info( _mapPendingTask.size( ) + " pending appointment index changes recovered" );
+        }
+        compact( );
+    }
+
+    /**
+     * Replay the changes of a journal
+     * 
+     * @param pathJournal
+     *            the journal
+     * @param mapTask
+     *            the pending tasks to coalesce the changes with
+     * @throws IOException
+     *             - if the journal cannot be read
+     */
+    static void readJournal( Path pathJournal, Map<Integer, Integer> mapTask ) throws IOException
+    {
+        if ( Files.exists( pathJournal ) )
+        {
+            for ( String strLine : Files.readAllLines( pathJournal, StandardCharsets.UTF_8 ) )
+            {
+                loadLine( strLine, mapTask );
+            }
+        }
+    }
+
+    /**
+     * Load a line of the journal. The changes of the journal may have been indexed already, so a creation is loaded as a modification
+     * 
+     * @param strLine
+     *            the line
+     * @param mapTask
+     *            the pending tasks to coalesce the change with
+     */
+    private static void loadLine( String strLine, Map<Integer, Integer> mapTask )
+    {
+        String [ ] tabValue = StringUtils.split( strLine, SEPARATOR );
+        if ( tabValue == null || tabValue.length != 2 )
+        {
+            return;
+        }
+        try
+        {
+            int nIdTask = Integer.parseInt( tabValue [0] );
+            int nIdAppointment = Integer.parseInt( tabValue [1] );
+            coalesce( mapTask, nIdAppointment, ( nIdTask == IndexerAction.TASK_CREATE ) ? IndexerAction.TASK_MODIFY : nIdTask );
+        }
+        catch( NumberFormatException e )
+        {
+            // Line truncated by a crash while it was written
+            AppLogService.error( "Invalid line in the appointment index journal : " + strLine );
+        }
+    }
+
+    /**
+     * Move the changes of the appointment indexer left in the indexer action table to the queue. Each change is journaled before its action is removed
+     */
+    private void loadIndexerActions( )
+    {
+        IndexerActionFilter filter = new IndexerActionFilter( );
+        filter.setIndexerName( LuteceAppointmentSearchIndexer.INDEXER_NAME );
+        for ( int nIdTask : new int [ ] {
+                IndexerAction.TASK_CREATE, IndexerAction.TASK_MODIFY, IndexerAction.TASK_DELETE
+        } )
+        {
+            filter.setIdTask( nIdTask );
+            List<IndexerAction> listAction = IndexerActionHome.getList( filter );
+            for ( IndexerAction action : listAction )
+            {
+                try
+                {
+                    // The order of the actions is lost, so they are all replayed as upserts
+                    int nIdAppointment = Integer.parseInt( action.getIdDocument( ) );
+                    coalesce( _mapPendingTask, nIdAppointment, IndexerAction.TASK_MODIFY );
+                    appendToJournal( nIdAppointment, IndexerAction.TASK_MODIFY );
+                }
+                catch( NumberFormatException e )
+                {
+                    AppLogService.error( action.getIdDocument( ) + " not parseable to an int", e );
+                }
+                IndexerActionHome.remove( action.getIdAction( ) );
+            }
+        }
+    }
+
+    /**
+     * Append a change to the journal. The journal is opened with DSYNC, so that the change is on the disk once the writer is flushed
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @param nIdTask
+     *            the task
+     */
+    private void appendToJournal( int nIdAppointment, int nIdTask )
+    {
+        try
+        {
+            if ( _journalWriter == null )
+            {
+                _journalWriter = Files.newBufferedWriter( _luceneAppointmentIndexFactory.getChangeJournalPath( ), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC );
+            }
+            _journalWriter.write( formatLine( nIdAppointment, nIdTask ) );
+            _journalWriter.flush( );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to write the appointment index journal", e );
+            closeJournal( );
+        }
+    }
+
+    /**
+     * Close the journal writer
+     */
+    private void closeJournal( )
+    {
+        if ( _journalWriter != null )
+        {
+            try
+            {
+                _journalWriter.close( );
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( "Unable to close the appointment index journal", e );
+            }
+            _journalWriter = null;
+        }
+    }
+
+    /**
+     * Format a line of the journal
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @param nIdTask
+     *            the task
+     * @return the line
+     */
+    static String formatLine( int nIdAppointment, int nIdTask )
+    {
+        return String.valueOf( nIdTask ) + SEPARATOR + nIdAppointment + System.lineSeparator( );
+    }
+}
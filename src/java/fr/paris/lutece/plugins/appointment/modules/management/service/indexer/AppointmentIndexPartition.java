@@ -0,0 +1,551 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.FilterCodecReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderManager;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * A partition of the index, holding the appointments starting in one period. The partition is opened for writing on its first change. Once its period
+ * is over and it has not changed for a while, it is frozen : merged into a single segment, committed and only opened for reading, until it changes
+ * again.
+ */
+class AppointmentIndexPartition implements Closeable
+{
+    private static final long FREEZE_DELAY = AppPropertiesService.getPropertyInt( "appointment-management.index.partition.freezeDelay", 600 ) * 1000L;
+
+    private final String _strName;
+    private final Directory _directory;
+    private final Analyzer _analyzer;
+    private final double _dRamBufferSizeMB;
+    private final long _lStart;
+    private final long _lEnd;
+    private IndexWriter _indexWriter;
+    private ReaderManager _readerManager;
+    private boolean _bSorted = true;
+    private long _lLastChange = System.currentTimeMillis( );
+
+    /**
+     * Open a partition, creating it if it does not exist
+     * 
+     * @param strName
+     *            the name of the partition
+     * @param path
+     *            the directory of the partition
+     * @param lStart
+     *            the lower bound of the start dates of the partition, inclusive
+     * @param lEnd
+     *            the upper bound of the start dates of the partition, exclusive
+     * @param analyzer
+     *            the analyzer of the index
+     * @param dRamBufferSizeMB
+     *            the size of the buffer of the index writer
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    AppointmentIndexPartition( String strName, Path path, long lStart, long lEnd, Analyzer analyzer, double dRamBufferSizeMB ) throws IOException
+    {
+        _strName = strName;
+        _directory = FSDirectory.open( path );
+        _analyzer = analyzer;
+        _dRamBufferSizeMB = dRamBufferSizeMB;
+        _lStart = lStart;
+        _lEnd = lEnd;
+
+        if ( DirectoryReader.indexExists( _directory ) )
+        {
+            _readerManager = new ReaderManager( _directory );
+            for ( SegmentCommitInfo segment : SegmentInfos.readLatestCommit( _directory ) )
+            {
+                _bSorted &= LuceneAppointmentIndexFactory.INDEX_SORT.equals( segment.info.getIndexSort( ) );
+            }
+        }
+        else
+        {
+            openIndexWriter( );
+        }
+    }
+
+    /**
+     * @return the name of the partition
+     */
+    String getName( )
+    {
+        return _strName;
+    }
+
+    /**
+     * @return true if the partition is sorted with the index sort
+     */
+    synchronized boolean isSorted( )
+    {
+        return _bSorted;
+    }
+
+    /**
+     * Tell whether the partition may hold appointments starting in a range
+     * 
+     * @param lLower
+     *            the lower bound of the range, inclusive
+     * @param lUpper
+     *            the upper bound of the range, inclusive
+     * @return true if the range overlaps the period of the partition
+     */
+    boolean overlaps( long lLower, long lUpper )
+    {
+        return lLower < _lEnd && lUpper >= _lStart;
+    }
+
+    /**
+     * Add documents to the partition
+     * 
+     * @param listDocument
+     *            the documents
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    void addDocuments( List<Document> listDocument ) throws IOException
+    {
+        getIndexWriter( ).addDocuments( listDocument );
+    }
+
+    /**
+     * Add the documents of a reader to the partition, without analyzing them again
+     * 
+     * @param reader
+     *            the reader
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    void addIndexes( IndexReader reader ) throws IOException
+    {
+        List<CodecReader> listCodecReader = new ArrayList<>( );
+        for ( LeafReaderContext leaf : reader.leaves( ) )
+        {
+            listCodecReader.add( SlowCodecReaderWrapper.wrap( leaf.reader( ) ) );
+        }
+        addIndexes( listCodecReader );
+    }
+
+    /**
+     * Add the documents of codec readers to the partition, without analyzing them again
+     * 
+     * @param listCodecReader
+     *            the readers
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private void addIndexes( List<CodecReader> listCodecReader ) throws IOException
+    {
+        getIndexWriter( ).addIndexes( listCodecReader.toArray( new CodecReader [ listCodecReader.size( )] ) );
+    }
+
+    /**
+     * Move the documents matching a query to another partition, without analyzing them again. The documents are first deleted by id from the target
+     * partition, so that a move interrupted between the commits of both partitions can be run again. The target partition is committed before this
+     * one : an interrupted move leaves the documents in both partitions rather than in none.
+     * 
+     * @param query
+     *            the query of the documents to move
+     * @param target
+     *            the partition to move the documents to
+     * @return the appointment ids of the moved documents
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    synchronized List<Integer> moveDocuments( Query query, AppointmentIndexPartition target ) throws IOException
+    {
+        List<Integer> listIdAppointment = new ArrayList<>( );
+        if ( _indexWriter == null && !matches( new Query [ ] {
+                query
+        } ) )
+        {
+            return listIdAppointment;
+        }
+        // The writer is opened first, as it replaces the reader manager of a frozen partition
+        IndexWriter indexWriter = getIndexWriter( );
+        _readerManager.maybeRefreshBlocking( );
+        DirectoryReader reader = _readerManager.acquire( );
+        try
+        {
+            IndexSearcher searcher = new IndexSearcher( reader );
+            Weight weight = searcher.createWeight( searcher.rewrite( query ), ScoreMode.COMPLETE_NO_SCORES, 1f );
+            List<CodecReader> listCodecReader = new ArrayList<>( );
+            for ( LeafReaderContext leaf : reader.leaves( ) )
+            {
+                CodecReader codecReader = selectDocuments( weight, leaf, listIdAppointment );
+                if ( codecReader != null )
+                {
+                    listCodecReader.add( codecReader );
+                }
+            }
+            if ( listIdAppointment.isEmpty( ) )
+            {
+                return listIdAppointment;
+            }
+
+            target.deleteDocuments( IntPoint.newSetQuery( AppointmentSearchItem.FIELD_ID_APPOINTMENT, listIdAppointment ) );
+            target.addIndexes( listCodecReader );
+            target.commit( );
+            // The searches see the moved documents in the target partition before they leave this one
+            target.refresh( );
+            indexWriter.deleteDocuments( query );
+            commit( );
+            _readerManager.maybeRefreshBlocking( );
+            return listIdAppointment;
+        }
+        finally
+        {
+            _readerManager.release( reader );
+        }
+    }
+
+    /**
+     * Select the live documents of a segment matching a query
+     * 
+     * @param weight
+     *            the weight of the query
+     * @param leaf
+     *            the segment
+     * @param listIdAppointment
+     *            the list to add the appointment ids of the selected documents to
+     * @return a reader of the segment only holding the selected documents, or null if none is selected
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private static CodecReader selectDocuments( Weight weight, LeafReaderContext leaf, List<Integer> listIdAppointment ) throws IOException
+    {
+        Scorer scorer = weight.scorer( leaf );
+        if ( scorer == null )
+        {
+            return null;
+        }
+        Bits liveDocs = leaf.reader( ).getLiveDocs( );
+        NumericDocValues idAppointmentValues = DocValues.getNumeric( leaf.reader( ), AppointmentSearchItem.FIELD_ID_APPOINTMENT );
+        FixedBitSet selectedDocs = new FixedBitSet( leaf.reader( ).maxDoc( ) );
+        DocIdSetIterator iterator = scorer.iterator( );
+        for ( int doc = iterator.nextDoc( ); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc( ) )
+        {
+            if ( ( liveDocs == null || liveDocs.get( doc ) ) && idAppointmentValues.advanceExact( doc ) )
+            {
+                selectedDocs.set( doc );
+                listIdAppointment.add( (int) idAppointmentValues.longValue( ) );
+            }
+        }
+        int nbSelectedDocs = selectedDocs.cardinality( );
+        if ( nbSelectedDocs == 0 )
+        {
+            return null;
+        }
+        return new SelectedDocsCodecReader( SlowCodecReaderWrapper.wrap( leaf.reader( ) ), selectedDocs, nbSelectedDocs );
+    }
+
+    /**
+     * Delete the documents matching some queries. A frozen partition is only opened for writing if it holds one of them.
+     * 
+     * @param queries
+     *            the queries
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    synchronized void deleteDocuments( Query... queries ) throws IOException
+    {
+        if ( _indexWriter == null && !matches( queries ) )
+        {
+            return;
+        }
+        getIndexWriter( ).deleteDocuments( queries );
+    }
+
+    /**
+     * Commit the changes of the partition, if any
+     * 
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    synchronized void commit( ) throws IOException
+    {
+        if ( _indexWriter != null && _indexWriter.hasUncommittedChanges( ) )
+        {
+            _indexWriter.commit( );
+        }
+    }
+
+    /**
+     * Freeze the partition if its period is over and it has not changed for the freeze delay
+     * 
+     * @param lNow
+     *            the current time
+     * @return true if the partition has been frozen
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    synchronized boolean freeze( long lNow ) throws IOException
+    {
+        if ( _indexWriter == null || _lEnd > lNow || lNow - _lLastChange < FREEZE_DELAY )
+        {
+            return false;
+        }
+        _indexWriter.forceMerge( 1 );
+        _indexWriter.commit( );
+
+        ReaderManager previousReaderManager = _readerManager;
+        _readerManager = new ReaderManager( _directory );
+        previousReaderManager.close( );
+        _indexWriter.close( );
+        _indexWriter = null;
+        return true;
+    }
+
+    /**
+     * Refresh the reader of the partition so that it sees the last changes
+     * 
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    synchronized void refresh( ) throws IOException
+    {
+        _readerManager.maybeRefresh( );
+    }
+
+    /**
+     * Acquire the current reader of the partition. It must be given back with {@link DirectoryReader#decRef()}
+     * 
+     * @return the reader
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    synchronized DirectoryReader acquire( ) throws IOException
+    {
+        return _readerManager.acquire( );
+    }
+
+    /**
+     * Close the partition, discarding its uncommitted changes
+     * 
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    synchronized void rollback( ) throws IOException
+    {
+        _readerManager.close( );
+        if ( _indexWriter != null )
+        {
+            _indexWriter.rollback( );
+            _indexWriter = null;
+        }
+    }
+
+    @Override
+    public synchronized void close( ) throws IOException
+    {
+        _readerManager.close( );
+        if ( _indexWriter != null )
+        {
+            _indexWriter.close( );
+            _indexWriter = null;
+        }
+    }
+
+    /**
+     * Get the writer of the partition, opening it if the partition is frozen
+     * 
+     * @return the writer
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private synchronized IndexWriter getIndexWriter( ) throws IOException
+    {
+        if ( _indexWriter == null )
+        {
+            openIndexWriter( );
+        }
+        _lLastChange = System.currentTimeMillis( );
+        return _indexWriter;
+    }
+
+    /**
+     * Open the writer of the partition, and a near real time reader on it
+     * 
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private void openIndexWriter( ) throws IOException
+    {
+        try
+        {
+            _indexWriter = new IndexWriter( _directory, createIndexWriterConfig( true ) );
+            _bSorted = true;
+        }
+        catch( IllegalArgumentException e )
+        {
+            // A partition written before the index sort cannot be sorted in place : it is kept as is until the index is rebuilt
+            AppLogService.info( "The appointment index partition " + _strName + " is not sorted, it must be rebuilt : " + e.getMessage( ) );
+            _indexWriter = new IndexWriter( _directory, createIndexWriterConfig( false ) );
+            _bSorted = false;
+        }
+
+        ReaderManager previousReaderManager = _readerManager;
+        _readerManager = new ReaderManager( _indexWriter );
+        if ( previousReaderManager != null )
+        {
+            previousReaderManager.close( );
+        }
+    }
+
+    /**
+     * Create the configuration of the writer of the partition
+     * 
+     * @param bSorted
+     *            true to sort the partition with the index sort
+     * @return the configuration
+     */
+    private IndexWriterConfig createIndexWriterConfig( boolean bSorted )
+    {
+        IndexWriterConfig conf = new IndexWriterConfig( _analyzer );
+        conf.setOpenMode( OpenMode.CREATE_OR_APPEND );
+        conf.setRAMBufferSizeMB( _dRamBufferSizeMB );
+        if ( bSorted )
+        {
+            conf.setIndexSort( LuceneAppointmentIndexFactory.INDEX_SORT );
+        }
+        return conf;
+    }
+
+    /**
+     * Tell whether the partition holds documents matching some queries
+     * 
+     * @param queries
+     *            the queries
+     * @return true if one of the queries matches a document
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private boolean matches( Query [ ] queries ) throws IOException
+    {
+        DirectoryReader reader = _readerManager.acquire( );
+        try
+        {
+            IndexSearcher searcher = new IndexSearcher( reader );
+            for ( Query query : queries )
+            {
+                if ( searcher.count( query ) > 0 )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally
+        {
+            _readerManager.release( reader );
+        }
+    }
+
+    /**
+     * A segment reader only exposing some of its documents, the others being seen as deleted
+     */
+    private static final class SelectedDocsCodecReader extends FilterCodecReader
+    {
+        private final Bits _selectedDocs;
+        private final int _nbSelectedDocs;
+
+        SelectedDocsCodecReader( CodecReader reader, Bits selectedDocs, int nbSelectedDocs )
+        {
+            super( reader );
+            _selectedDocs = selectedDocs;
+            _nbSelectedDocs = nbSelectedDocs;
+        }
+
+        @Override
+        public Bits getLiveDocs( )
+        {
+            return _selectedDocs;
+        }
+
+        @Override
+        public int numDocs( )
+        {
+            return _nbSelectedDocs;
+        }
+
+        @Override
+        public CacheHelper getCoreCacheHelper( )
+        {
+            return null;
+        }
+
+        @Override
+        public CacheHelper getReaderCacheHelper( )
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Period of the start dates of the appointments held by each partition of the index. The partitions are named after the first day of their period.
+ */
+enum AppointmentIndexPeriod
+{
+    NONE( 0 ),
+    MONTH( 1 ),
+    QUARTER( 3 ),
+    YEAR( 12 );
+
+    /**
+     * Prefix of the directories of the partitions
+     */
+    static final String PREFIX_PARTITION_DIRECTORY = "partition-";
+
+    private final int _nMonths;
+
+    /**
+     * Constructor
+     * 
+     * @param nMonths
+     *            the number of months of the period, 0 for a single partition
+     */
+    AppointmentIndexPeriod( int nMonths )
+    {
+        _nMonths = nMonths;
+    }
+
+    /**
+     * Get the period of a property value
+     * 
+     * @param strValue
+     *            the property value, case insensitive
+     * @return the period, NONE if the value is empty or unknown
+     */
+    static AppointmentIndexPeriod valueOfProperty( String strValue )
+    {
+        if ( StringUtils.isNotBlank( strValue ) )
+        {
+            try
+            {
+                return valueOf( strValue.trim( ).toUpperCase( ) );
+            }
+            catch( IllegalArgumentException e )
+            {
+                AppLogService.error( "Unknown appointment index partition period : " + strValue );
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Get the name of the partition of a start date
+     * 
+     * @param lStartDate
+     *            the start date, in epoch milliseconds
+     * @return the name of the partition, empty if the index is not partitioned
+     */
+    String getPartitionName( long lStartDate )
+    {
+        if ( this == NONE )
+        {
+            return StringUtils.EMPTY;
+        }
+        LocalDate date = Instant.ofEpochMilli( lStartDate ).atZone( ZoneId.systemDefault( ) ).toLocalDate( );
+        int nFirstMonth = ( date.getMonthValue( ) - 1 ) / _nMonths * _nMonths + 1;
+        return PREFIX_PARTITION_DIRECTORY + LocalDate.of( date.getYear( ), nFirstMonth, 1 );
+    }
+
+    /**
+     * Get the bounds of the start dates of a partition
+     * 
+     * @param strPartitionName
+     *            the name of the partition
+     * @return the lower bound, inclusive, and the upper bound, exclusive, in epoch milliseconds, or null if the name is not the one of a partition of
+     *         this period
+     */
+    long [ ] getBounds( String strPartitionName )
+    {
+        if ( this == NONE || !StringUtils.startsWith( strPartitionName, PREFIX_PARTITION_DIRECTORY ) )
+        {
+            return null;
+        }
+        LocalDate dateStart;
+        try
+        {
+            dateStart = LocalDate.parse( strPartitionName.substring( PREFIX_PARTITION_DIRECTORY.length( ) ) );
+        }
+        catch( DateTimeParseException e )
+        {
+            return null;
+        }
+        if ( dateStart.getDayOfMonth( ) != 1 || ( dateStart.getMonthValue( ) - 1 ) % _nMonths != 0 )
+        {
+            return null;
+        }
+        LocalDate dateEnd = dateStart.plusMonths( _nMonths );
+        return new long [ ] {
+                dateStart.atStartOfDay( ZoneId.systemDefault( ) ).toInstant( ).toEpochMilli( ),
+                dateEnd.atStartOfDay( ZoneId.systemDefault( ) ).toInstant( ).toEpochMilli( )
+        };
+    }
+}
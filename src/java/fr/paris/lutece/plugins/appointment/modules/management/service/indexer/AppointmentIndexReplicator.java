@@ -0,0 +1,644 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Replication of the appointment index between the nodes of a cluster. Only the primary node indexes the appointments : it publishes the commits of its
+ * live index to a directory shared by all the nodes, copying each index file once, and a manifest names the segments file of each partition of the
+ * published commit. The replica nodes poll the manifest, copy the new files into their own index path and refresh their searchers, so that each node
+ * searches a local copy of the index.
+ */
+class AppointmentIndexReplicator
+{
+    /**
+     * Role of the node in the replication of the index
+     */
+    enum Role
+    {
+        NONE,
+        PRIMARY,
+        REPLICA;
+
+        /**
+         * Get the role of a property value
+         * 
+         * @param strValue
+         *            the property value
+         * @return the role, NONE if the value is blank or unknown
+         */
+        static Role valueOfProperty( String strValue )
+        {
+            if ( StringUtils.isNotBlank( strValue ) )
+            {
+                try
+                {
+                    return valueOf( strValue.trim( ).toUpperCase( ) );
+                }
+                catch( IllegalArgumentException e )
+                {
+                    AppLogService.error( "Unknown appointment index replication role : " + strValue );
+                }
+            }
+            return NONE;
+        }
+    }
+
+    private static final String PROPERTY_ROLE = "appointment-management.index.replication.role";
+    private static final String PROPERTY_PATH = "appointment-management.index.replication.path";
+    private static final int RETENTION = AppPropertiesService.getPropertyInt( "appointment-management.index.replication.retention", 600 );
+    private static final String FILE_MANIFEST = "manifest";
+    private static final String KEY_GENERATION = "generation";
+    private static final String KEY_ARCHIVE_CUTOFF = "archiveCutoff";
+    private static final String PREFIX_KEY_PARTITION = "partition.";
+    private static final String GENERATION_ROOT = "index-0";
+    private static final String PREFIX_PENDING_FILE = "replication_";
+    private static final String PREFIX_SEGMENT_FILE = "_";
+    private static final String SUFFIX_TMP_FILE = ".tmp";
+
+    private final Role _role;
+    private final Path _pathShared;
+    private Properties _manifest;
+    // The manifests replaced by the primary node, with the time they were replaced, in this order
+    private final Map<Properties, Long> _mapReplacedManifest = new LinkedHashMap<>( );
+
+    /**
+     * Create the replicator with the configured role and shared directory
+     */
+    AppointmentIndexReplicator( )
+    {
+        Role role = Role.valueOfProperty( AppPropertiesService.getProperty( PROPERTY_ROLE ) );
+        String strPath = AppPropertiesService.getProperty( PROPERTY_PATH );
+        if ( role != Role.NONE && StringUtils.isBlank( strPath ) )
+        {
+            AppLogService.error( "The replication of the appointment index is disabled : no shared directory is configured" );
+            role = Role.NONE;
+        }
+        _role = role;
+        _pathShared = ( role != Role.NONE ) ? Paths.get( strPath ) : null;
+    }
+
+    /**
+     * @return true if the node indexes the appointments and publishes its index
+     */
+    boolean isPrimary( )
+    {
+        return _role == Role.PRIMARY;
+    }
+
+    /**
+     * @return true if the node copies the index published by the primary node instead of indexing the appointments
+     */
+    boolean isReplica( )
+    {
+        return _role == Role.REPLICA;
+    }
+
+    /**
+     * Publish the last commit of the live index to the shared directory. Only the files which are not published yet are copied, and nothing is
+     * published if the commit did not change since the last call. The files of the commits replaced within the retention delay, and always of the
+     * last replaced one, are kept for the replicas which are still copying them, the older ones are deleted. Only called from the indexing worker of the primary node, so that the commit is not replaced while it
+     * is copied.
+     * 
+     * @param strIndexName
+     *            the name of the live index
+     * @param pathIndex
+     *            the directory of the live index
+     * @param lArchiveCutoff
+     *            the archive cutoff of the live index
+     * @throws IOException
+     *             - if the commit cannot be copied
+     */
+    void publish( String strIndexName, Path pathIndex, long lArchiveCutoff ) throws IOException
+    {
+        String strGeneration = StringUtils.isEmpty( strIndexName ) ? GENERATION_ROOT : strIndexName;
+        Path pathGeneration = Files.createDirectories( _pathShared.resolve( strGeneration ) );
+
+        Properties manifest = new Properties( );
+        manifest.setProperty( KEY_GENERATION, strGeneration );
+        manifest.setProperty( KEY_ARCHIVE_CUTOFF, String.valueOf( lArchiveCutoff ) );
+        for ( String strPartitionDirectory : listPartitionDirectories( pathIndex ) )
+        {
+            Path pathPartition = resolve( pathIndex, strPartitionDirectory );
+            SegmentInfos infos;
+            try ( Directory directory = FSDirectory.open( pathPartition ) )
+            {
+                infos = SegmentInfos.readLatestCommit( directory );
+            }
+            copyFiles( pathPartition, Files.createDirectories( resolve( pathGeneration, strPartitionDirectory ) ), infos.files( true ) );
+            manifest.setProperty( PREFIX_KEY_PARTITION + strPartitionDirectory, infos.getSegmentsFileName( ) );
+        }
+
+        if ( _manifest == null )
+        {
+            _manifest = readManifest( );
+        }
+        if ( manifest.equals( _manifest ) )
+        {
+            return;
+        }
+        writeManifest( manifest );
+        if ( _manifest != null )
+        {
+            _mapReplacedManifest.put( _manifest, System.currentTimeMillis( ) );
+        }
+        _manifest = manifest;
+        deleteUnpublishedFiles( );
+    }
+
+    /**
+     * Read the manifest published by the primary node, if it changed since the last installed one
+     * 
+     * @return the new manifest, or null if nothing new is published
+     * @throws IOException
+     *             - if the manifest cannot be read
+     */
+    Properties readNewManifest( ) throws IOException
+    {
+        Properties manifest = readManifest( );
+        if ( manifest == null || manifest.equals( _manifest ) )
+        {
+            return null;
+        }
+        return manifest;
+    }
+
+    /**
+     * Get the name of the index published in a manifest. The replica nodes copy it in an index of the same name
+     * 
+     * @param manifest
+     *            the manifest
+     * @return the name of the index
+     */
+    static String getIndexName( Properties manifest )
+    {
+        return manifest.getProperty( KEY_GENERATION );
+    }
+
+    /**
+     * Copy the commit published in a manifest into the local index of the replica node. The new partitions are copied aside then moved into the index,
+     * so that the index is never opened with a partial partition. The index files which are in neither the commit nor the previously installed one
+     * are deleted : the searches of the previous commit may still read its files until they are refreshed.
+     * 
+     * @param manifest
+     *            the manifest
+     * @param pathIndex
+     *            the directory of the local index
+     * @throws IOException
+     *             - if the commit cannot be copied
+     */
+    void install( Properties manifest, Path pathIndex ) throws IOException
+    {
+        Path pathGeneration = _pathShared.resolve( getIndexName( manifest ) );
+        Files.createDirectories( pathIndex );
+        for ( String strPartitionDirectory : getPartitionDirectories( manifest ) )
+        {
+            Path pathSource = resolve( pathGeneration, strPartitionDirectory );
+            Collection<String> collectionFile;
+            try ( Directory directory = FSDirectory.open( pathSource ) )
+            {
+                collectionFile = SegmentInfos.readCommit( directory, manifest.getProperty( PREFIX_KEY_PARTITION + strPartitionDirectory ) ).files( true );
+            }
+
+            Path pathTarget = resolve( pathIndex, strPartitionDirectory );
+            if ( Files.isDirectory( pathTarget ) )
+            {
+                copyFiles( pathSource, pathTarget, collectionFile );
+                Set<String> setKeptFile = new HashSet<>( collectionFile );
+                setKeptFile.addAll( getInstalledFiles( manifest, pathTarget, strPartitionDirectory ) );
+                deleteStaleFiles( pathTarget, setKeptFile );
+            }
+            else
+            {
+                Path pathPending = Files.createDirectories( pathIndex.resolve( PREFIX_PENDING_FILE + strPartitionDirectory ) );
+                copyFiles( pathSource, pathPending, collectionFile );
+                Files.move( pathPending, pathTarget, StandardCopyOption.ATOMIC_MOVE );
+            }
+        }
+        AppointmentIndex.writeArchiveCutoff( pathIndex, Long.parseLong( manifest.getProperty( KEY_ARCHIVE_CUTOFF ) ) );
+    }
+
+    /**
+     * Get the files of the commit of a local partition installed before a manifest
+     * 
+     * @param manifest
+     *            the manifest being installed
+     * @param path
+     *            the partition directory
+     * @param strPartitionDirectory
+     *            the name of the partition directory
+     * @return the files of the installed commit, empty if the partition was not installed in the same index
+     */
+    private Collection<String> getInstalledFiles( Properties manifest, Path path, String strPartitionDirectory )
+    {
+        if ( _manifest == null || !getIndexName( manifest ).equals( getIndexName( _manifest ) ) )
+        {
+            return Collections.emptySet( );
+        }
+        String strSegmentsFile = _manifest.getProperty( PREFIX_KEY_PARTITION + strPartitionDirectory );
+        if ( strSegmentsFile == null )
+        {
+            return Collections.emptySet( );
+        }
+        try ( Directory directory = FSDirectory.open( path ) )
+        {
+            return SegmentInfos.readCommit( directory, strSegmentsFile ).files( true );
+        }
+        catch( IOException e )
+        {
+            // The installed commit is already deleted
+            return Collections.emptySet( );
+        }
+    }
+
+    /**
+     * Tell whether the local index must be opened again to search a manifest : refreshing its searchers is enough when the manifest only changes the
+     * commits of the partitions already installed
+     * 
+     * @param manifest
+     *            the manifest
+     * @return true if the index, its partitions or its archive cutoff changed since the last installed manifest
+     */
+    boolean isReopenNeeded( Properties manifest )
+    {
+        return _manifest == null || !getIndexName( manifest ).equals( getIndexName( _manifest ) )
+                || !getPartitionDirectories( manifest ).equals( getPartitionDirectories( _manifest ) )
+                || !manifest.getProperty( KEY_ARCHIVE_CUTOFF ).equals( _manifest.getProperty( KEY_ARCHIVE_CUTOFF ) );
+    }
+
+    /**
+     * Record a manifest as installed, once the searches of the replica node use it
+     * 
+     * @param manifest
+     *            the manifest
+     */
+    void setInstalled( Properties manifest )
+    {
+        _manifest = manifest;
+    }
+
+    /**
+     * Get the partition directories of a manifest
+     * 
+     * @param manifest
+     *            the manifest
+     * @return the names of the partition directories, empty for the directory of the index itself
+     */
+    private static Set<String> getPartitionDirectories( Properties manifest )
+    {
+        return manifest.stringPropertyNames( ).stream( ).filter( strKey -> strKey.startsWith( PREFIX_KEY_PARTITION ) )
+                .map( strKey -> strKey.substring( PREFIX_KEY_PARTITION.length( ) ) ).collect( Collectors.toSet( ) );
+    }
+
+    /**
+     * List the directories of an index which hold a committed partition : the index directory itself, its partitions and its archive
+     * 
+     * @param pathIndex
+     *            the directory of the index
+     * @return the names of the partition directories, empty for the directory of the index itself
+     * @throws IOException
+     *             - if the index directory cannot be read
+     */
+    private static List<String> listPartitionDirectories( Path pathIndex ) throws IOException
+    {
+        List<String> listDirectory = new ArrayList<>( );
+        listDirectory.add( StringUtils.EMPTY );
+        try ( Stream<Path> stream = Files.list( pathIndex ) )
+        {
+            stream.filter( Files::isDirectory ).map( path -> path.getFileName( ).toString( ) )
+                    .filter( strName -> strName.startsWith( AppointmentIndexPeriod.PREFIX_PARTITION_DIRECTORY ) || AppointmentIndex.DIRECTORY_ARCHIVE.equals( strName ) )
+                    .forEach( listDirectory::add );
+        }
+
+        List<String> listPartitionDirectory = new ArrayList<>( );
+        for ( String strDirectory : listDirectory )
+        {
+            try ( Directory directory = FSDirectory.open( resolve( pathIndex, strDirectory ) ) )
+            {
+                if ( DirectoryReader.indexExists( directory ) )
+                {
+                    listPartitionDirectory.add( strDirectory );
+                }
+            }
+        }
+        return listPartitionDirectory;
+    }
+
+    /**
+     * Copy the files of a commit which are not in the target directory yet. The segments file is copied last, so that the commit is only visible once
+     * complete, and each file is copied under a temporary name then renamed
+     * 
+     * @param pathSource
+     *            the source directory
+     * @param pathTarget
+     *            the target directory
+     * @param collectionFile
+     *            the files of the commit
+     * @throws IOException
+     *             - if a file cannot be copied
+     */
+    private static void copyFiles( Path pathSource, Path pathTarget, Collection<String> collectionFile ) throws IOException
+    {
+        String strSegmentsFile = null;
+        for ( String strFile : collectionFile )
+        {
+            if ( strFile.startsWith( IndexFileNames.SEGMENTS ) )
+            {
+                strSegmentsFile = strFile;
+            }
+            else
+            {
+                copyFile( pathSource, pathTarget, strFile );
+            }
+        }
+        if ( strSegmentsFile != null )
+        {
+            copyFile( pathSource, pathTarget, strSegmentsFile );
+        }
+    }
+
+    /**
+     * Copy an index file, unless it is already copied : the index files are written once and never modified
+     * 
+     * @param pathSource
+     *            the source directory
+     * @param pathTarget
+     *            the target directory
+     * @param strFile
+     *            the file name
+     * @throws IOException
+     *             - if the file cannot be copied
+     */
+    private static void copyFile( Path pathSource, Path pathTarget, String strFile ) throws IOException
+    {
+        Path pathSourceFile = pathSource.resolve( strFile );
+        Path pathTargetFile = pathTarget.resolve( strFile );
+        if ( Files.exists( pathTargetFile ) && Files.size( pathTargetFile ) == Files.size( pathSourceFile ) )
+        {
+            return;
+        }
+        Path pathPending = pathTarget.resolve( PREFIX_PENDING_FILE + strFile );
+        Files.copy( pathSourceFile, pathPending, StandardCopyOption.REPLACE_EXISTING );
+        Files.move( pathPending, pathTargetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Delete the index files of a local partition which are not in its last installed commits. The searches still reading them keep them open until
+     * they release their readers
+     * 
+     * @param path
+     *            the partition directory
+     * @param collectionFile
+     *            the files of the last installed commits
+     * @throws IOException
+     *             - if the directory cannot be read
+     */
+    private static void deleteStaleFiles( Path path, Collection<String> collectionFile ) throws IOException
+    {
+        List<Path> listFile;
+        try ( Stream<Path> stream = Files.list( path ) )
+        {
+            listFile = stream.filter( Files::isRegularFile ).filter( file -> isIndexFile( file.getFileName( ).toString( ) ) )
+                    .filter( file -> !collectionFile.contains( file.getFileName( ).toString( ) ) ).collect( Collectors.toList( ) );
+        }
+        for ( Path file : listFile )
+        {
+            try
+            {
+                Files.delete( file );
+            }
+            catch( IOException e )
+            {
+                // Some file systems do not delete the open files, it is deleted by the next install
+                AppLogService.warn( "Unable to delete the replicated index file " + file + " : " + e.getMessage( ) );
+            }
+        }
+    }
+
+    /**
+     * Delete the files of the shared directory which are in neither the published commit nor the retained replaced ones, with the indexes left by the
+     * rebuilds
+     */
+    private void deleteUnpublishedFiles( )
+    {
+        // The last replaced commit is kept whatever its age, the replicas may not have read the published one yet
+        long lRetainedSince = System.currentTimeMillis( ) - RETENTION * 1000L;
+        Iterator<Long> iterator = _mapReplacedManifest.values( ).iterator( );
+        while ( _mapReplacedManifest.size( ) > 1 && iterator.next( ) < lRetainedSince )
+        {
+            iterator.remove( );
+        }
+
+        try
+        {
+            Map<Path, Set<String>> mapPublishedFile = new HashMap<>( );
+            List<Properties> listManifest = new ArrayList<>( _mapReplacedManifest.keySet( ) );
+            listManifest.add( _manifest );
+            for ( Properties manifest : listManifest )
+            {
+                Path pathGeneration = _pathShared.resolve( getIndexName( manifest ) );
+                for ( String strPartitionDirectory : getPartitionDirectories( manifest ) )
+                {
+                    Path pathPartition = resolve( pathGeneration, strPartitionDirectory );
+                    try ( Directory directory = FSDirectory.open( pathPartition ) )
+                    {
+                        mapPublishedFile.computeIfAbsent( pathPartition, path -> new HashSet<>( ) )
+                                .addAll( SegmentInfos.readCommit( directory, manifest.getProperty( PREFIX_KEY_PARTITION + strPartitionDirectory ) ).files( true ) );
+                    }
+                }
+            }
+
+            // The children come before their parent, so that the emptied directories are deleted too
+            List<Path> listPath;
+            try ( Stream<Path> stream = Files.walk( _pathShared ) )
+            {
+                // The manifest is the only file of the shared directory itself
+                listPath = stream.filter( path -> !path.equals( _pathShared ) )
+                        .filter( path -> Files.isDirectory( path ) || !path.getParent( ).equals( _pathShared ) ).sorted( Comparator.reverseOrder( ) )
+                        .collect( Collectors.toList( ) );
+            }
+            for ( Path path : listPath )
+            {
+                if ( Files.isDirectory( path ) )
+                {
+                    if ( isEmptyDirectory( path ) )
+                    {
+                        deleteUnpublishedFile( path );
+                    }
+                }
+                else
+                    if ( !mapPublishedFile.getOrDefault( path.getParent( ), Collections.emptySet( ) ).contains( path.getFileName( ).toString( ) ) )
+                    {
+                        deleteUnpublishedFile( path );
+                    }
+            }
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to delete the unpublished files of the appointment index", e );
+        }
+    }
+
+    /**
+     * Delete a file or an empty directory of the shared directory. A file which cannot be deleted is deleted by the next publication
+     * 
+     * @param path
+     *            the file or the directory
+     */
+    private static void deleteUnpublishedFile( Path path )
+    {
+        try
+        {
+            Files.delete( path );
+        }
+        catch( IOException e )
+        {
+            AppLogService.warn( "Unable to delete the unpublished file " + path + " of the appointment index : " + e.getMessage( ) );
+        }
+    }
+
+    /**
+     * Read the manifest of the shared directory
+     * 
+     * @return the manifest, or null if nothing is published
+     * @throws IOException
+     *             - if the manifest cannot be read
+     */
+    private Properties readManifest( ) throws IOException
+    {
+        Path pathManifest = _pathShared.resolve( FILE_MANIFEST );
+        if ( !Files.exists( pathManifest ) )
+        {
+            return null;
+        }
+        Properties manifest = new Properties( );
+        try ( Reader reader = Files.newBufferedReader( pathManifest, StandardCharsets.UTF_8 ) )
+        {
+            manifest.load( reader );
+        }
+        return manifest;
+    }
+
+    /**
+     * Atomically replace the manifest of the shared directory
+     * 
+     * @param manifest
+     *            the manifest
+     * @throws IOException
+     *             - if the manifest cannot be written
+     */
+    private void writeManifest( Properties manifest ) throws IOException
+    {
+        Path pathTmp = _pathShared.resolve( FILE_MANIFEST + SUFFIX_TMP_FILE );
+        try ( Writer writer = Files.newBufferedWriter( pathTmp, StandardCharsets.UTF_8 ) )
+        {
+            manifest.store( writer, null );
+        }
+        Files.move( pathTmp, _pathShared.resolve( FILE_MANIFEST ), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Tell if a file of a partition directory belongs to the Lucene index or is a file left by an interrupted copy
+     * 
+     * @param strFileName
+     *            the file name
+     * @return true if the file may be deleted once it is not in the installed commit
+     */
+    private static boolean isIndexFile( String strFileName )
+    {
+        return strFileName.startsWith( PREFIX_SEGMENT_FILE ) || strFileName.startsWith( IndexFileNames.SEGMENTS + "_" )
+                || strFileName.startsWith( PREFIX_PENDING_FILE );
+    }
+
+    /**
+     * @param path
+     *            a directory
+     * @return true if the directory is empty
+     * @throws IOException
+     *             - if the directory cannot be read
+     */
+    private static boolean isEmptyDirectory( Path path ) throws IOException
+    {
+        try ( Stream<Path> stream = Files.list( path ) )
+        {
+            return !stream.findAny( ).isPresent( );
+        }
+    }
+
+    /**
+     * Resolve a partition directory
+     * 
+     * @param path
+     *            the directory of the index
+     * @param strPartitionDirectory
+     *            the name of the partition directory, empty for the directory of the index itself
+     * @return the path of the partition directory
+     */
+    private static Path resolve( Path path, String strPartitionDirectory )
+    {
+        return StringUtils.isEmpty( strPartitionDirectory ) ? path : path.resolve( strPartitionDirectory );
+    }
+}
@@ -34,19 +34,30 @@
 package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.index.IndexWriterConfig.OpenMode;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPathService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
@@ -56,64 +67,525 @@ public class LuceneAppointmentIndexFactory
     // Constants
     private static final String PATH_INDEX = "appointment-management.internalIndexer.lucene.indexPath";
     private static final String PATH_INDEX_IN_WEBAPP = "appointment-management.internalIndexer.lucene.indexInWebapp";
+    private static final String PREFIX_INDEX_DIRECTORY = "index-";
+    private static final String FILE_CURRENT_INDEX = "current_index";
+    private static final String FILE_CHANGE_JOURNAL = "changes.journal";
+    private static final String SUFFIX_TMP_FILE = ".tmp";
+    private static final String PROPERTY_PARTITION_PERIOD = "appointment-management.index.partition.period";
+    private static final String PROPERTY_PARTITION_RAM_BUFFER_SIZE = "appointment-management.index.partition.ramBufferSize";
+
+    /**
+     * The order of the documents in the index : the default order of the multiview, so that its searches stop collecting once the page is full
+     */
+    public static final Sort INDEX_SORT = new Sort( new SortField( AppointmentSearchItem.FIELD_START_DATE, SortField.Type.LONG, true ),
+            new SortField( AppointmentSearchItem.FIELD_ID_APPOINTMENT, SortField.Type.INT ) );
 
     @Inject
     @Named( value = "appointment-management.luceneAnalizer" )
     private Analyzer _analyzer;
 
-    private IndexWriter _indexWriter;
+    private AppointmentIndex _index;
+    private String _strIndexName;
+    private AppointmentIndex _rebuildIndex;
+    private String _strRebuildIndexName;
+    // The replaced indexes still read by searches, with the name of the index to delete once they are released
+    private final Map<AppointmentIndex, String> _mapRetiredIndexName = new HashMap<>( );
+
+    /**
+     * Get the live index, opening it on first call
+     * 
+     * @return the live index, or null if it cannot be opened
+     */
+    synchronized AppointmentIndex getIndex( )
+    {
+        if ( _index == null )
+        {
+            try
+            {
+                _index = openIndex( getCurrentIndexName( ) );
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( "Unable to open the appointment index", e );
+                return null;
+            }
+        }
+        return _index;
+    }
+
+    /**
+     * Open a new empty index, next to the live one. The whole index is rebuilt in it while the searches keep using the live index, until
+     * {@link #switchToRebuiltIndex()} is called.
+     * 
+     * @return the index to rebuild
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    synchronized AppointmentIndex getRebuildIndex( ) throws IOException
+    {
+        abortRebuild( );
+
+        _strRebuildIndexName = PREFIX_INDEX_DIRECTORY + System.currentTimeMillis( );
+        _rebuildIndex = openIndex( _strRebuildIndexName );
+        return _rebuildIndex;
+    }
 
     /**
-     * Create the IndexWriter with its configuration
+     * Switch the live index to the rebuilt one. The rebuilt index is committed and becomes the live index, so that the searches move from the previous
+     * index to the rebuilt one at once. The previous index is closed and deleted once the searches in progress have released it.
      * 
-     * @param bCreateIndex
-     *            The boolean which tell if the index must be created
-     * @return the created IndexWriter
      * @throws IOException
      *             - if there is a low level IO error
      */
-    public IndexWriter getIndexWriter( Boolean bCreateIndex )
+    public synchronized void switchToRebuiltIndex( ) throws IOException
     {
-        if ( _indexWriter == null || !_indexWriter.isOpen( ) )
+        if ( _rebuildIndex == null )
         {
-            try
+            throw new IOException( "No appointment index is being rebuilt" );
+        }
+        _rebuildIndex.commit( );
+
+        String strPreviousIndexName = getCurrentIndexName( );
+        AppointmentIndex previousIndex = _index;
+
+        writeCurrentIndexName( _strRebuildIndexName );
+        _strIndexName = _strRebuildIndexName;
+        _index = _rebuildIndex;
+        _rebuildIndex = null;
+        _strRebuildIndexName = null;
+
+        retireIndex( previousIndex, strPreviousIndexName );
+    }
+
+    /**
+     * Switch the live index to an index copied from the primary node of the cluster. The copied index is opened again, and the previous index is
+     * closed once the searches in progress have released it. Its files are then deleted, unless the copied index is in the same directory.
+     * 
+     * @param strIndexName
+     *            the name of the copied index
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    public synchronized void switchToReplicatedIndex( String strIndexName ) throws IOException
+    {
+        AppointmentIndex index = openIndex( strIndexName );
+        String strPreviousIndexName = getCurrentIndexName( );
+        AppointmentIndex previousIndex = _index;
+
+        if ( !strIndexName.equals( strPreviousIndexName ) )
+        {
+            writeCurrentIndexName( strIndexName );
+            _strIndexName = strIndexName;
+        }
+        _index = index;
+
+        retireIndex( previousIndex, strIndexName.equals( strPreviousIndexName ) ? null : strPreviousIndexName );
+    }
+
+    /**
+     * Release the reference of the factory on a replaced index. The index is closed, and its files deleted, once the searches in progress have
+     * released it too.
+     * 
+     * @param index
+     *            the replaced index, may be null
+     * @param strIndexName
+     *            the name of the index to delete, or null to keep its files
+     */
+    private void retireIndex( AppointmentIndex index, String strIndexName )
+    {
+        if ( index == null )
+        {
+            if ( strIndexName != null )
             {
-                Directory luceneDirectory = getDirectory( );
+                deleteIndex( strIndexName );
+            }
+            return;
+        }
+        _mapRetiredIndexName.put( index, strIndexName );
+        releaseIndex( index );
+    }
 
-                if ( !DirectoryReader.indexExists( luceneDirectory ) )
-                {
-                    bCreateIndex = Boolean.TRUE;
-                }
+    /**
+     * Release a reference on an index, closing it and deleting its files if it was the last reference on a replaced index
+     * 
+     * @param index
+     *            the index
+     */
+    private void releaseIndex( AppointmentIndex index )
+    {
+        if ( index.decRef( ) )
+        {
+            String strIndexName;
+            synchronized( this )
+            {
+                strIndexName = _mapRetiredIndexName.remove( index );
+            }
+            index.rollback( );
+            if ( strIndexName != null )
+            {
+                deleteIndex( strIndexName );
+            }
+        }
+    }
 
-                IndexWriterConfig conf = new IndexWriterConfig( _analyzer );
+    /**
+     * Take a reference on the live index, so that it is not closed while it is used. It must be given back with {@link #releaseIndex(AppointmentIndex)}
+     * 
+     * @return the live index
+     * @throws IOException
+     *             - if the index cannot be opened
+     */
+    private AppointmentIndex acquireIndex( ) throws IOException
+    {
+        AppointmentIndex index;
+        do
+        {
+            index = getIndex( );
+            if ( index == null )
+            {
+                throw new IOException( "Unable to open the appointment index" );
+            }
+        }
+        // The index may have been replaced and released since it was read : the next one is then live
+        while ( !index.tryIncRef( ) );
+        return index;
+    }
 
-                if ( Boolean.TRUE.equals( bCreateIndex ) )
-                {
-                    conf.setOpenMode( OpenMode.CREATE );
-                }
-                else
+    /**
+     * Abort the rebuild of the index, if any, and delete the partially rebuilt index
+     */
+    public synchronized void abortRebuild( )
+    {
+        if ( _rebuildIndex != null )
+        {
+            _rebuildIndex.rollback( );
+            _rebuildIndex = null;
+        }
+        if ( _strRebuildIndexName != null )
+        {
+            deleteIndex( _strRebuildIndexName );
+            _strRebuildIndexName = null;
+        }
+    }
+
+    /**
+     * Close the live index, committing the pending changes
+     */
+    public synchronized void close( )
+    {
+        abortRebuild( );
+        try
+        {
+            if ( _index != null )
+            {
+                _index.close( );
+            }
+            _index = null;
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to close the appointment index", e );
+        }
+    }
+
+    /**
+     * Tell whether the live index must be rebuilt : an index written before the index sort is not sorted, and an index partitioned with another period
+     * than the configured one is not pruned by the searches
+     * 
+     * @return true if the live index must be rebuilt
+     */
+    public synchronized boolean isRebuildNeeded( )
+    {
+        AppointmentIndex index = getIndex( );
+        return index != null && index.isRebuildNeeded( );
+    }
+
+    /**
+     * Open an index with the configured partition period
+     * 
+     * @param strIndexName
+     *            the name of the index
+     * @return the index
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private AppointmentIndex openIndex( String strIndexName ) throws IOException
+    {
+        AppointmentIndexPeriod period = AppointmentIndexPeriod.valueOfProperty( AppPropertiesService.getProperty( PROPERTY_PARTITION_PERIOD ) );
+        double dRamBufferSizeMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+        if ( period != AppointmentIndexPeriod.NONE )
+        {
+            // Each partition has its own writer, and a rebuild writes many partitions at once
+            dRamBufferSizeMB = AppPropertiesService.getPropertyInt( PROPERTY_PARTITION_RAM_BUFFER_SIZE, 4 );
+        }
+        return new AppointmentIndex( Files.createDirectories( getIndexPath( strIndexName ) ), period, getAnalyzer( ), dRamBufferSizeMB );
+    }
+
+    /**
+     * Get the analyzer of the index : the n-gram companion fields are analyzed with the n-gram analyzer, the other fields with the configured one
+     * 
+     * @return the analyzer
+     */
+    private Analyzer getAnalyzer( )
+    {
+        Analyzer ngramAnalyzer = new AppointmentNGramAnalyzer( );
+        Map<String, Analyzer> mapFieldAnalyzer = new HashMap<>( );
+        mapFieldAnalyzer.put( AppointmentSearchItem.FIELD_FIRST_NAME_NGRAM, ngramAnalyzer );
+        mapFieldAnalyzer.put( AppointmentSearchItem.FIELD_LAST_NAME_NGRAM, ngramAnalyzer );
+        mapFieldAnalyzer.put( AppointmentSearchItem.FIELD_MAIL_NGRAM, ngramAnalyzer );
+        mapFieldAnalyzer.put( AppointmentSearchItem.FIELD_PHONE_NUMBER_NGRAM, ngramAnalyzer );
+        return new PerFieldAnalyzerWrapper( _analyzer, mapFieldAnalyzer );
+    }
+
+    /**
+     * Acquire a searcher on all the partitions of the index, with its archive. It must be given back with {@link #releaseSearcher(IndexSearcher)}
+     * 
+     * @return the acquired searcher
+     * @throws IOException
+     *             - if the index cannot be opened
+     */
+    public IndexSearcher acquireSearcher( ) throws IOException
+    {
+        return acquireSearcher( Long.MIN_VALUE, Long.MAX_VALUE );
+    }
+
+    /**
+     * Acquire a searcher on the partitions of the index which may hold appointments starting in a range. Its readers are shared between the concurrent
+     * searches, it must be given back with {@link #releaseSearcher(IndexSearcher)}
+     * 
+     * @param lLower
+     *            the lower bound of the start dates, inclusive, in epoch milliseconds
+     * @param lUpper
+     *            the upper bound of the start dates, inclusive, in epoch milliseconds
+     * @return the acquired searcher
+     * @throws IOException
+     *             - if the index cannot be opened
+     */
+    public IndexSearcher acquireSearcher( long lLower, long lUpper ) throws IOException
+    {
+        AppointmentIndex index = acquireIndex( );
+        try
+        {
+            return new AppointmentIndexSearcher( index, index.acquireReader( lLower, lUpper ) );
+        }
+        catch( IOException | RuntimeException e )
+        {
+            releaseIndex( index );
+            throw e;
+        }
+    }
+
+    /**
+     * Release a searcher previously acquired with {@link #acquireSearcher()}
+     * 
+     * @param searcher
+     *            the searcher to release, may be null
+     */
+    public void releaseSearcher( IndexSearcher searcher )
+    {
+        if ( searcher != null )
+        {
+            try
+            {
+                searcher.getIndexReader( ).decRef( );
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( "Unable to release the index searcher", e );
+            }
+            finally
+            {
+                if ( searcher instanceof AppointmentIndexSearcher )
                 {
-                    conf.setOpenMode( OpenMode.APPEND );
+                    releaseIndex( ( (AppointmentIndexSearcher) searcher ).getIndex( ) );
                 }
-                _indexWriter = new IndexWriter( luceneDirectory, conf );
             }
-            catch( IOException e )
+        }
+    }
+
+    /**
+     * Refresh the readers of the live index so that they see the last changes of the index
+     */
+    public void refreshSearcher( )
+    {
+        try
+        {
+            AppointmentIndex index = acquireIndex( );
+            try
             {
-                AppLogService.error( "Unable to create a new Lucene Index Writer", e );
-                return null;
+                index.refresh( );
+            }
+            finally
+            {
+                releaseIndex( index );
+            }
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to refresh the index searcher", e );
+        }
+    }
+
+    /**
+     * Get the name of the directory of the live index, read from the current index file of the index path. The name is empty when the live index is
+     * directly in the index path, as it is before its first rebuild.
+     * 
+     * @return the name of the live index
+     * @throws IOException
+     *             - if the current index file cannot be read
+     */
+    synchronized String getCurrentIndexName( ) throws IOException
+    {
+        if ( _strIndexName == null )
+        {
+            Path pathCurrentIndex = getIndexRootPath( ).resolve( FILE_CURRENT_INDEX );
+            if ( Files.exists( pathCurrentIndex ) )
+            {
+                _strIndexName = new String( Files.readAllBytes( pathCurrentIndex ), StandardCharsets.UTF_8 ).trim( );
+            }
+            else
+            {
+                _strIndexName = StringUtils.EMPTY;
+            }
+        }
+        return _strIndexName;
+    }
+
+    /**
+     * Atomically replace the current index file
+     * 
+     * @param strIndexName
+     *            the name of the live index
+     * @throws IOException
+     *             - if the current index file cannot be written
+     */
+    private void writeCurrentIndexName( String strIndexName ) throws IOException
+    {
+        Path pathRoot = getIndexRootPath( );
+        Path pathTmp = pathRoot.resolve( FILE_CURRENT_INDEX + SUFFIX_TMP_FILE );
+        Files.write( pathTmp, strIndexName.getBytes( StandardCharsets.UTF_8 ) );
+        Files.move( pathTmp, pathRoot.resolve( FILE_CURRENT_INDEX ), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Delete the files of an index, with its partitions and its archive
+     * 
+     * @param strIndexName
+     *            the name of the index
+     */
+    private void deleteIndex( String strIndexName )
+    {
+        try
+        {
+            Path pathIndex = getIndexPath( strIndexName );
+            List<Path> listPartition;
+            try ( Stream<Path> stream = Files.list( pathIndex ) )
+            {
+                listPartition = stream.filter( Files::isDirectory ).filter( path -> isPartitionDirectory( path.getFileName( ).toString( ) ) )
+                        .collect( Collectors.toList( ) );
+            }
+            for ( Path pathPartition : listPartition )
+            {
+                deleteFiles( pathPartition );
+                Files.delete( pathPartition );
+            }
+            deleteFiles( pathIndex );
+            if ( StringUtils.isNotEmpty( strIndexName ) )
+            {
+                Files.delete( pathIndex );
             }
         }
-        return _indexWriter;
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to delete the appointment index " + strIndexName, e );
+        }
+    }
+
+    /**
+     * Tell if a directory of an index holds one of its partitions or its archive
+     * 
+     * @param strDirectoryName
+     *            the directory name
+     * @return true if the directory must be deleted with the index
+     */
+    private static boolean isPartitionDirectory( String strDirectoryName )
+    {
+        return strDirectoryName.startsWith( AppointmentIndexPeriod.PREFIX_PARTITION_DIRECTORY ) || AppointmentIndex.DIRECTORY_ARCHIVE.equals( strDirectoryName );
     }
 
     /**
-     * Return the Directory to use for the search
+     * Delete the index files of a directory
      * 
-     * @return the Directory to use for the search
+     * @param path
+     *            the directory
+     * @throws IOException
+     *             - if a file cannot be deleted
+     */
+    private static void deleteFiles( Path path ) throws IOException
+    {
+        List<Path> listFile;
+        try ( Stream<Path> stream = Files.list( path ) )
+        {
+            listFile = stream.filter( Files::isRegularFile ).filter( file -> !isIndexRootFile( file.getFileName( ).toString( ) ) )
+                    .collect( Collectors.toList( ) );
+        }
+        for ( Path file : listFile )
+        {
+            Files.delete( file );
+        }
+    }
+
+    /**
+     * Tell if a file of the index path belongs to the index path itself rather than to the legacy index stored in it
+     * 
+     * @param strFileName
+     *            the file name
+     * @return true if the file must be kept when the legacy index is deleted
+     */
+    private static boolean isIndexRootFile( String strFileName )
+    {
+        return strFileName.startsWith( FILE_CURRENT_INDEX ) || strFileName.startsWith( FILE_CHANGE_JOURNAL );
+    }
+
+    /**
+     * Return the path of the journal of the pending index changes, which is kept in the index path
+     * 
+     * @return the journal path
+     * @throws IOException
+     *             - if the path string cannot be converted to a Path
+     */
+    public Path getChangeJournalPath( ) throws IOException
+    {
+        return getIndexRootPath( ).resolve( FILE_CHANGE_JOURNAL );
+    }
+
+    /**
+     * Get the path of an index
+     * 
+     * @param strIndexName
+     *            the name of the index, empty for the index path itself
+     * @return the path of the index
      * @throws IOException
      *             - if the path string cannot be converted to a Path
      */
-    public Directory getDirectory( ) throws IOException
+    Path getIndexPath( String strIndexName ) throws IOException
+    {
+        Path pathRoot = getIndexRootPath( );
+        if ( StringUtils.isEmpty( strIndexName ) )
+        {
+            return pathRoot;
+        }
+        return pathRoot.resolve( strIndexName );
+    }
+
+    /**
+     * Return the configured index path, which holds the live index and the index being rebuilt
+     * 
+     * @return the index path
+     * @throws IOException
+     *             - if the path string cannot be converted to a Path
+     */
+    Path getIndexRootPath( ) throws IOException
     {
         String strIndex;
 
@@ -127,6 +599,36 @@ public class LuceneAppointmentIndexFactory
             strIndex = AppPropertiesService.getProperty( PATH_INDEX );
         }
 
-        return FSDirectory.open( Paths.get( strIndex ) );
+        return Files.createDirectories( Paths.get( strIndex ) );
+    }
+
+    /**
+     * A searcher holding a reference on the index of its reader, so that the index is not closed before the searcher is released
+     */
+    private static final class AppointmentIndexSearcher extends IndexSearcher
+    {
+        private final AppointmentIndex _index;
+
+        /**
+         * Constructor
+         * 
+         * @param index
+         *            the index of the reader
+         * @param reader
+         *            the acquired reader
+         */
+        AppointmentIndexSearcher( AppointmentIndex index, IndexReader reader )
+        {
+            super( reader );
+            _index = index;
+        }
+
+        /**
+         * @return the index of the reader
+         */
+        AppointmentIndex getIndex( )
+        {
+            return _index;
+        }
     }
 }
@@ -35,16 +35,31 @@ package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
 
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.inject.Inject;
 
@@ -58,8 +73,7 @@ import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.search.Query;
+import org.apache.lucene.document.TextField;
 import org.apache.lucene.util.BytesRef;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -67,48 +81,79 @@ import fr.paris.lutece.plugins.appointment.business.appointment.Appointment;
 import fr.paris.lutece.plugins.appointment.business.appointment.AppointmentHome;
 import fr.paris.lutece.plugins.appointment.business.form.Form;
 import fr.paris.lutece.plugins.appointment.business.form.FormHome;
-import fr.paris.lutece.plugins.appointment.business.user.User;
-import fr.paris.lutece.plugins.appointment.business.user.UserHome;
+import fr.paris.lutece.plugins.appointment.modules.management.business.appointment.AppointmentIdHome;
 import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+import fr.paris.lutece.plugins.appointment.modules.management.business.workflow.ResourceStateHome;
+import fr.paris.lutece.plugins.appointment.modules.management.service.AppointmentReferenceCacheService;
 import fr.paris.lutece.plugins.appointment.service.AppointmentService;
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentDTO;
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFilterDTO;
 import fr.paris.lutece.plugins.workflowcore.business.state.State;
 import fr.paris.lutece.plugins.workflowcore.service.state.StateService;
 import fr.paris.lutece.portal.business.indexeraction.IndexerAction;
-import fr.paris.lutece.portal.business.indexeraction.IndexerActionFilter;
-import fr.paris.lutece.portal.business.indexeraction.IndexerActionHome;
 import fr.paris.lutece.portal.service.message.SiteMessageException;
 import fr.paris.lutece.portal.service.search.IndexationService;
 import fr.paris.lutece.portal.service.search.SearchItem;
+import fr.paris.lutece.portal.service.util.AppException;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 /**
- * Appointment global indexer
+ * Appointment global indexer. All the changes of the live index are applied by a single long-lived worker, the full rebuilds run on their own thread
+ * and only hand the switch to the rebuilt index over to the worker.
  */
 public class LuteceAppointmentSearchIndexer implements IAppointmentSearchIndexer
 {
+    public static final String BEAN_NAME = "appointment-management.luteceAppointmentSearchIndexer";
 
     private static final String APPOINTMENTS = "appointments";
     private static final String SUFIX_UID_APPOINTMENTS = "_appointment";
-    private static final String INDEXER_NAME = "AppointmentIndexer";
+    static final String INDEXER_NAME = "AppointmentIndexer";
     private static final String INDEXER_DESCRIPTION = "Indexer service for appointment";
     private static final String INDEXER_VERSION = "1.0.0";
     private static final String PROPERTY_INDEXER_ENABLE = "appointment-management.globalIndexer.enable";
     private static final int TAILLE_LOT = AppPropertiesService.getPropertyInt( "appointment-management.index.writer.commit.size", 100 );
+    private static final int REBUILD_THREADS = Math.max( 1, AppPropertiesService.getPropertyInt( "appointment-management.index.rebuild.threads", 4 ) );
+    private static final int COMMIT_INTERVAL = Math.max( 1, AppPropertiesService.getPropertyInt( "appointment-management.index.commit.interval", 10 ) );
+    private static final int COMMIT_DOCS = AppPropertiesService.getPropertyInt( "appointment-management.index.commit.docs", 1000 );
+    private static final int SHUTDOWN_TIMEOUT = AppPropertiesService.getPropertyInt( "appointment-management.index.shutdown.timeout", 30 );
+    private static final int ARCHIVE_AGE = AppPropertiesService.getPropertyInt( "appointment-management.index.archive.age", 0 );
+    private static final int REPLICATION_INTERVAL = Math.max( 1, AppPropertiesService.getPropertyInt( "appointment-management.index.replication.interval", 5 ) );
+    private static final int INDEXING_QUEUE_CAPACITY = 16;
+    private static final long SUBMIT_RETRY_DELAY = 100;
+    private static final String THREAD_NAME_INDEXING = "appointment-management-indexing";
+    private static final String THREAD_NAME_REBUILD = "appointment-management-rebuild";
+    private static final String THREAD_NAME_REBUILD_WORKER = "appointment-management-rebuild-worker";
+    private static final String THREAD_NAME_COMMIT = "appointment-management-commit";
 
     @Inject
     private LuceneAppointmentIndexFactory _luceneAppointmentIndexFactory;
-    private IndexWriter _indexWriter;
+    private AppointmentIndex _index;
 
     @Autowired( required = false )
     private StateService _stateService;
 
-    private static AtomicBoolean _bIndexIsRunning = new AtomicBoolean( false );
-    private static AtomicBoolean _bIndexToLunch = new AtomicBoolean( false );
+    @Inject
+    private AppointmentReferenceCacheService _referenceCacheService;
+
+    @Inject
+    private AppointmentIndexChangeQueue _changeQueue;
+
+    @Inject
+    private AppointmentIndexChangeLog _changeLog;
+
+    private final ExecutorService _indexingExecutor = newSingleThreadExecutor( THREAD_NAME_INDEXING, INDEXING_QUEUE_CAPACITY );
+    private final ExecutorService _rebuildExecutor = newSingleThreadExecutor( THREAD_NAME_REBUILD, 1 );
+    private final ScheduledExecutorService _commitScheduler = Executors.newSingleThreadScheduledExecutor( newThreadFactory( THREAD_NAME_COMMIT ) );
+    private final AppointmentIndexReplicator _replicator = new AppointmentIndexReplicator( );
+
+    // Only used by the indexing worker
+    private int _nUncommittedChanges;
+    private long _lLastCommitTime = System.currentTimeMillis( );
 
-    private static final Object LOCK = new Object( );
+    private static AtomicBoolean _bIndexingScheduled = new AtomicBoolean( false );
+    private static AtomicBoolean _bRebuildIsRunning = new AtomicBoolean( false );
+    private static Set<Integer> _setIdToReplay = ConcurrentHashMap.newKeySet( );
 
     public LuteceAppointmentSearchIndexer( )
     {
@@ -154,33 +199,290 @@ public class LuteceAppointmentSearchIndexer implements IAppointmentSearchIndexer
     @Override
     public void indexDocuments( ) throws IOException, InterruptedException, SiteMessageException
     {
-        List<Integer> listAppointmentId = AppointmentHome.selectAllAppointmentId( );
-
-        deleteIndex( );
-        _bIndexToLunch.set( true );
-
-        if ( _bIndexIsRunning.compareAndSet( false, true ) )
+        if ( _replicator.isReplica( ) )
         {
-            new Thread( new IndexerRunnable( listAppointmentId ) ).start( );
+            AppLogService.info( "The appointment index is rebuilt by the primary node of the cluster" );
+            return;
+        }
+        if ( _bRebuildIsRunning.compareAndSet( false, true ) )
+        {
+            _setIdToReplay.clear( );
+            _referenceCacheService.invalidate( );
+            try
+            {
+                _rebuildExecutor.execute( new RebuildRunnable( ) );
+            }
+            catch( RejectedExecutionException e )
+            {
+                _bRebuildIsRunning.set( false );
+                if ( _rebuildExecutor.isShutdown( ) )
+                {
+                    AppLogService.error( "The appointment indexing service is stopped", e );
+                }
+                else
+                {
+                    AppLogService.error( "The previous rebuild of the appointment index is still running", e );
+                }
+            }
+        }
+        else
+        {
+            AppLogService.info( "The appointment index is already being rebuilt" );
         }
     }
 
     @Override
     public void indexDocument( int nIdAppointment, int idTask )
     {
-        IndexerAction action = new IndexerAction( );
-        action.setIdDocument( String.valueOf( nIdAppointment ) );
-        action.setIdTask( idTask );
-        action.setIndexerName( INDEXER_NAME );
-        IndexerActionHome.create( action );
+        if ( isChangeRecorded( ) )
+        {
+            _changeLog.add( nIdAppointment, idTask );
+        }
+        if ( _replicator.isReplica( ) )
+        {
+            // The primary node consumes the change from the log and publishes the indexed change
+            return;
+        }
+        _changeQueue.add( nIdAppointment, idTask );
+        scheduleIndexing( );
+    }
+
+    /**
+     * Start the indexing service, indexing the changes left pending by the previous run, and rebuilding the index if it is not sorted, not
+     * partitioned as configured, or if the node missed changes of the other nodes of the cluster. On a replica node of a cluster, only the replication of the index published by the primary node is started.
+     */
+    public void start( )
+    {
+        if ( _replicator.isReplica( ) )
+        {
+            _commitScheduler.scheduleWithFixedDelay( this::replicateIndex, 0, REPLICATION_INTERVAL, TimeUnit.SECONDS );
+            return;
+        }
+        _commitScheduler.scheduleWithFixedDelay( this::scheduleCommit, COMMIT_INTERVAL, COMMIT_INTERVAL, TimeUnit.SECONDS );
+        if ( !_changeQueue.isEmpty( ) )
+        {
+            scheduleIndexing( );
+        }
+        boolean bRebuildNeeded = _luceneAppointmentIndexFactory.isRebuildNeeded( );
+        if ( isChangeLogEnabled( ) )
+        {
+            try
+            {
+                bRebuildNeeded |= _changeLog.open( );
+            }
+            catch( AppException e )
+            {
+                AppLogService.error( "Unable to open the appointment index change log", e );
+            }
+        }
+        if ( bRebuildNeeded )
+        {
+            try
+            {
+                indexDocuments( );
+            }
+            catch( IOException | SiteMessageException e )
+            {
+                AppLogService.error( "Unable to rebuild the appointment index", e );
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+            }
+        }
+    }
+
+    /**
+     * Stop the indexing service. The running rebuild is aborted, and the pending changes are indexed before the worker stops
+     */
+    public void shutdown( )
+    {
+        _commitScheduler.shutdownNow( );
+        _rebuildExecutor.shutdownNow( );
+        if ( !_replicator.isReplica( ) )
+        {
+            scheduleIndexing( );
+            try
+            {
+                _indexingExecutor.execute( this::commitIndex );
+            }
+            catch( RejectedExecutionException e )
+            {
+                // The changes stay in the journal and are indexed at the next start
+                AppLogService.error( "The appointment indexing queue is full, the pending changes will be indexed at the next start", e );
+            }
+        }
+        _indexingExecutor.shutdown( );
+        try
+        {
+            if ( !_indexingExecutor.awaitTermination( SHUTDOWN_TIMEOUT, TimeUnit.SECONDS ) )
+            {
+                AppLogService.error( "The appointment indexing service did not stop within " + SHUTDOWN_TIMEOUT + " seconds" );
+                _indexingExecutor.shutdownNow( );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            _indexingExecutor.shutdownNow( );
+            Thread.currentThread( ).interrupt( );
+        }
+    }
 
-        _bIndexToLunch.set( true );
-        if ( _bIndexIsRunning.compareAndSet( false, true ) )
+    /**
+     * Tell whether the changes are shared with the other nodes of the cluster through the change log. The replication of the index needs it, for the
+     * changes made on the replica nodes
+     * 
+     * @return true if the change log is enabled
+     */
+    private boolean isChangeLogEnabled( )
+    {
+        return _changeLog.isEnabled( ) || _replicator.isPrimary( ) || _replicator.isReplica( );
+    }
+
+    /**
+     * Tell whether the changes made on this node are recorded in the change log, which is done synchronously on the path of the change. A replica node
+     * records them for the primary node. The primary node publishes its own changes with the index, so it only records them when other nodes index the
+     * appointments from the change log.
+     * 
+     * @return true if the changes of this node are recorded in the change log
+     */
+    private boolean isChangeRecorded( )
+    {
+        return _changeLog.isEnabled( ) || _replicator.isReplica( );
+    }
+
+    /**
+     * Schedule the indexing of the pending changes, unless it is already scheduled
+     */
+    private void scheduleIndexing( )
+    {
+        if ( _bIndexingScheduled.compareAndSet( false, true ) )
         {
-            new Thread( new IndexerRunnable( ) ).start( );
+            try
+            {
+                _indexingExecutor.execute( new IndexerRunnable( ) );
+            }
+            catch( RejectedExecutionException e )
+            {
+                _bIndexingScheduled.set( false );
+                if ( _indexingExecutor.isShutdown( ) )
+                {
+                    // The changes stay in the journal and are indexed at the next start
+                    AppLogService.info( "The appointment indexing service is stopped, the pending changes will be indexed at the next start" );
+                }
+                else
+                {
+                    // The changes stay in the queue and are indexed at the next commit tick
+                    AppLogService.info( "The appointment indexing queue is full, the pending changes will be indexed at the next commit" );
+                }
+            }
         }
     }
 
+    /**
+     * Schedule a commit of the live index on the indexing worker, if the commit interval has elapsed since the last one, and the freeze of its idle
+     * partitions. The changes of the other nodes of the cluster are polled first, and the committed index is published to the replica nodes.
+     */
+    private void scheduleCommit( )
+    {
+        if ( isChangeLogEnabled( ) )
+        {
+            try
+            {
+                if ( _changeLog.poll( _changeQueue ) > 0 )
+                {
+                    scheduleIndexing( );
+                }
+            }
+            catch( AppException e )
+            {
+                // An exception would cancel the next runs of the scheduler
+                AppLogService.error( "Unable to poll the appointment index change log", e );
+            }
+        }
+        if ( !_changeQueue.isEmpty( ) )
+        {
+            // The indexing may not have been scheduled while the queue of the worker was full
+            scheduleIndexing( );
+        }
+        try
+        {
+            _indexingExecutor.execute( ( ) -> {
+                if ( _nUncommittedChanges > 0 && System.currentTimeMillis( ) - _lLastCommitTime >= COMMIT_INTERVAL * 1000L )
+                {
+                    commitIndex( );
+                }
+                freezeIndex( );
+                publishIndex( );
+            } );
+        }
+        catch( RejectedExecutionException e )
+        {
+            // The worker is busy or stopped, the changes are committed by its next run
+            AppLogService.debug( "Appointment index commit not scheduled : " + e.getMessage( ) );
+        }
+    }
+
+    /**
+     * Submit a task to the indexing worker, waiting for room in its queue if it is full
+     * 
+     * @param task
+     *            the task
+     * @return the future result of the task
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     * @throws RejectedExecutionException
+     *             if the indexing service is stopped
+     */
+    private <T> Future<T> submitToIndexingWorker( Callable<T> task ) throws InterruptedException
+    {
+        while ( true )
+        {
+            try
+            {
+                return _indexingExecutor.submit( task );
+            }
+            catch( RejectedExecutionException e )
+            {
+                if ( _indexingExecutor.isShutdown( ) )
+                {
+                    throw e;
+                }
+                Thread.sleep( SUBMIT_RETRY_DELAY );
+            }
+        }
+    }
+
+    /**
+     * Create an executor running its tasks one at a time on a named daemon thread
+     * 
+     * @param strThreadName
+     *            the thread name
+     * @param nQueueCapacity
+     *            the maximum number of waiting tasks
+     * @return the executor
+     */
+    private static ExecutorService newSingleThreadExecutor( String strThreadName, int nQueueCapacity )
+    {
+        return new ThreadPoolExecutor( 1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>( nQueueCapacity ), newThreadFactory( strThreadName ) );
+    }
+
+    /**
+     * Create a factory of named daemon threads
+     * 
+     * @param strThreadName
+     *            the thread name
+     * @return the thread factory
+     */
+    private static ThreadFactory newThreadFactory( String strThreadName )
+    {
+        return runnable -> {
+            Thread thread = new Thread( runnable, strThreadName );
+            thread.setDaemon( true );
+            return thread;
+        };
+    }
+
     @Override
     public List<Document> getDocuments( String strIdDocument ) throws IOException, InterruptedException, SiteMessageException
     {
@@ -221,7 +523,7 @@ public class LuteceAppointmentSearchIndexer implements IAppointmentSearchIndexer
      *            the form
      * @return a lucene document filled with the record data
      */
-    private Document getDocument( AppointmentDTO appointmentDTO, State appointmentState, int idCategory )
+    Document getDocument( AppointmentDTO appointmentDTO, State appointmentState, int idCategory )
     {
     	
     	 FieldType ftNotStored = new FieldType( StringField.TYPE_NOT_STORED );
@@ -251,6 +553,7 @@ public class LuteceAppointmentSearchIndexer implements IAppointmentSearchIndexer
 
         doc.add( new StringField( AppointmentSearchItem.FIELD_FIRST_NAME_SEARCH, appointmentDTO.getFirstName( ).toLowerCase( ), Field.Store.YES ) );
         doc.add( new SortedDocValuesField( AppointmentSearchItem.FIELD_FIRST_NAME_SEARCH, new BytesRef( appointmentDTO.getFirstName( ).toLowerCase( ) ) ) );
+        doc.add( new TextField( AppointmentSearchItem.FIELD_FIRST_NAME_NGRAM, appointmentDTO.getFirstName( ).toLowerCase( ), Field.Store.NO ) );
 
         // --- Last name
         doc.add( new StringField( AppointmentSearchItem.FIELD_LAST_NAME, appointmentDTO.getLastName( ), Field.Store.YES ) );
@@ -258,6 +561,7 @@ public class LuteceAppointmentSearchIndexer implements IAppointmentSearchIndexer
 
         doc.add( new StringField( AppointmentSearchItem.FIELD_LAST_NAME_SEARCH, appointmentDTO.getLastName( ).toLowerCase( ), Field.Store.YES ) );
         doc.add( new SortedDocValuesField( AppointmentSearchItem.FIELD_LAST_NAME_SEARCH, new BytesRef( appointmentDTO.getLastName( ).toLowerCase( ) ) ) );
+        doc.add( new TextField( AppointmentSearchItem.FIELD_LAST_NAME_NGRAM, appointmentDTO.getLastName( ).toLowerCase( ), Field.Store.NO ) );
 
         // --- Mail
         doc.add( new StringField( AppointmentSearchItem.FIELD_MAIL, appointmentDTO.getEmail( ), Field.Store.YES ) );
@@ -265,12 +569,14 @@ public class LuteceAppointmentSearchIndexer implements IAppointmentSearchIndexer
 
         doc.add( new StringField( AppointmentSearchItem.FIELD_MAIL_SEARCH, appointmentDTO.getEmail( ).toLowerCase( ), Field.Store.YES ) );
         doc.add( new SortedDocValuesField( AppointmentSearchItem.FIELD_MAIL_SEARCH, new BytesRef( appointmentDTO.getEmail( ).toLowerCase( ) ) ) );
+        doc.add( new TextField( AppointmentSearchItem.FIELD_MAIL_NGRAM, appointmentDTO.getEmail( ).toLowerCase( ), Field.Store.NO ) );
 
         // --- Phone Number
         // A User's phone number can be null in DB, so we make sure this variable is always initialized with a value
         String phoneNumber = appointmentDTO.getPhoneNumber( ) != null ? appointmentDTO.getPhoneNumber( ) : "";
         doc.add( new StringField( AppointmentSearchItem.FIELD_PHONE_NUMBER, phoneNumber, Field.Store.YES ) );
         doc.add( new SortedDocValuesField( AppointmentSearchItem.FIELD_PHONE_NUMBER, new BytesRef( phoneNumber ) ) );
+        doc.add( new TextField( AppointmentSearchItem.FIELD_PHONE_NUMBER_NGRAM, phoneNumber.toLowerCase( ), Field.Store.NO ) );
 
         // --- Starting date appointment
         Long longStartDate = Timestamp.valueOf( appointmentDTO.getStartingDateTime( ) ).getTime( );
@@ -322,244 +628,585 @@ public class LuteceAppointmentSearchIndexer implements IAppointmentSearchIndexer
         return doc;
     }
 
-    private void deleteIndex( )
+    /**
+     * Init the indexing action
+     */
+    private void initIndexing( )
+    {
+        _index = _luceneAppointmentIndexFactory.getIndex( );
+    }
+
+    /**
+     * End the indexing action, durably committing the index. The changes are already visible to the searches, which are refreshed after each batch
+     * 
+     * @return true if the index is committed
+     */
+    private boolean endIndexing( )
     {
-        if ( _indexWriter == null || !_indexWriter.isOpen( ) )
+        if ( _index != null )
         {
-            initIndexing( true );
+            try
+            {
+                _index.commit( );
+                return true;
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( "Unable to close index writer ", e );
+            }
         }
-        try
+        return false;
+    }
+
+    /**
+     * Index a list of appointments, without committing the index. The searches see each batch as soon as it is indexed
+     * 
+     * @param index
+     *            the index
+     * @param idList
+     *            the ids of the appointments
+     */
+    private void processIdList( AppointmentIndex index, Collection<Integer> idList )
+    {
+        List<Integer> partialIdList = new ArrayList<>( TAILLE_LOT );
+        for ( Integer nIdAppointment : idList )
+        {
+            partialIdList.add( nIdAppointment );
+            if ( partialIdList.size( ) == TAILLE_LOT )
+            {
+                indexBatch( index, partialIdList, null );
+                _luceneAppointmentIndexFactory.refreshSearcher( );
+                partialIdList.clear( );
+            }
+        }
+        if ( CollectionUtils.isNotEmpty( partialIdList ) )
         {
-            _indexWriter.deleteAll( );
+            indexBatch( index, partialIdList, null );
+            _luceneAppointmentIndexFactory.refreshSearcher( );
+            partialIdList.clear( );
         }
-        catch( IOException e )
+    }
+
+    /**
+     * Load and index a batch of appointments. The appointments are loaded with their user data in one query, and the time spent loading and indexing
+     * them is logged in debug
+     * 
+     * @param index
+     *            the index
+     * @param idList
+     *            the ids of the appointments of the batch
+     * @param times
+     *            the times of the batches to add the time of the batch to, may be null
+     * @return the number of documents added to the index
+     */
+    private int indexBatch( AppointmentIndex index, List<Integer> idList, BatchTimes times )
+    {
+        long lStart = System.currentTimeMillis( );
+        List<AppointmentDTO> listAppointment = findAppointments( idList );
+        long lLoaded = System.currentTimeMillis( );
+        int nbDocuments = indexAppointmentList( index, listAppointment );
+        long lEnd = System.currentTimeMillis( );
+
+        if ( times != null )
         {
-            AppLogService.error( "Unable to delete all docs in index ", e );
+            times.add( lLoaded - lStart, lEnd - lLoaded );
         }
-        finally
+        if ( AppLogService.isDebugEnabled( ) )
         {
-            endIndexing( );
+            AppLogService.debug( "Appointment batch of " + idList.size( ) + " ids indexed in " + ( lEnd - lStart ) + " ms (loading : " + ( lLoaded - lStart )
+                    + " ms, indexing : " + ( lEnd - lLoaded ) + " ms)" );
         }
+        return nbDocuments;
     }
 
     /**
-     * Init the indexing action
+     * Load the appointments of a list of ids. The appointments are loaded with the first name, last name, email and phone number of their user, so
+     * that the users need not be loaded one by one
      * 
-     * @param bCreate
+     * @param idList
+     *            the ids of the appointments
+     * @return the appointments
      */
-    private void initIndexing( boolean bCreate )
+    private List<AppointmentDTO> findAppointments( List<Integer> idList )
     {
-        _indexWriter = _luceneAppointmentIndexFactory.getIndexWriter( bCreate );
+        AppointmentFilterDTO filter = new AppointmentFilterDTO( );
+        filter.setListIdAppointment( idList );
+
+        return AppointmentService.findListAppointmentsDTOByFilter( filter );
     }
 
     /**
-     * End the indexing action
+     * Build the documents of a list of appointments and add them to the index
+     * 
+     * @param index
+     *            the index
+     * @param listAppointment
+     *            the appointments
+     * @return the number of documents added to the index
      */
-    private void endIndexing( )
+    private int indexAppointmentList( AppointmentIndex index, List<AppointmentDTO> listAppointment )
     {
-        if ( _indexWriter != null )
+        Map<Integer, State> mapAppointmentState = findAppointmentStates( listAppointment );
+        List<Document> documentList = new ArrayList<>( );
+
+        for ( AppointmentDTO appointment : listAppointment )
         {
+            int formId = appointment.getSlot( ).get( 0 ).getIdForm( );
+            Form form = _referenceCacheService.getForm( formId );
+
+            State appointmentState = mapAppointmentState.get( appointment.getIdAppointment( ) );
+            Document doc = null;
             try
             {
-                _indexWriter.commit( );
+                doc = getDocument( appointment, appointmentState, form.getIdCategory( ) );
             }
-            catch( IOException e )
+            catch( Exception e )
             {
-                AppLogService.error( "Unable to close index writer ", e );
+                AppLogService.error( "Unable to index appointment with id " + appointment.getIdAppointment( ), e );
+            }
+
+            if ( doc != null )
+            {
+                documentList.add( doc );
             }
         }
+
+        int nbDocuments = documentList.size( );
+        try
+        {
+            index.addDocuments( documentList );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to index documents", e );
+        }
+        documentList.clear( );
+        return nbDocuments;
     }
 
-    private class IndexerRunnable implements Runnable
+    /**
+     * Find the workflow states of a batch of appointments, with one query per workflow of their forms instead of one query per appointment. The states
+     * themselves come from the reference cache
+     * 
+     * @param listAppointment
+     *            the appointments
+     * @return the workflow states, by appointment id
+     */
+    private Map<Integer, State> findAppointmentStates( List<AppointmentDTO> listAppointment )
     {
-        private final List<Integer> _idList;
-
-        public IndexerRunnable( List<Integer> idList )
+        Map<Integer, State> mapAppointmentState = new HashMap<>( );
+        if ( _stateService == null )
         {
-            _idList = new ArrayList<>( idList );
+            return mapAppointmentState;
         }
 
-        public IndexerRunnable( )
+        Map<Integer, List<Integer>> mapIdAppointmentByWorkflow = new HashMap<>( );
+        for ( AppointmentDTO appointment : listAppointment )
         {
-            _idList = new ArrayList<>( );
+            Form form = _referenceCacheService.getForm( appointment.getSlot( ).get( 0 ).getIdForm( ) );
+            if ( form != null && form.getIdWorkflow( ) > 0 )
+            {
+                mapIdAppointmentByWorkflow.computeIfAbsent( form.getIdWorkflow( ), k -> new ArrayList<>( ) ).add( appointment.getIdAppointment( ) );
+            }
         }
 
-        @Override
-        public void run( )
+        for ( Map.Entry<Integer, List<Integer>> entry : mapIdAppointmentByWorkflow.entrySet( ) )
         {
-            try
+            Map<Integer, Integer> mapIdState = ResourceStateHome.findIdStateByListIdResource( entry.getValue( ), Appointment.APPOINTMENT_RESOURCE_TYPE,
+                    entry.getKey( ) );
+            for ( Map.Entry<Integer, Integer> entryIdState : mapIdState.entrySet( ) )
             {
-                processIdList( _idList );
-                while ( _bIndexToLunch.compareAndSet( true, false ) )
-                {
-                    processIndexing( );
-                }
+                mapAppointmentState.put( entryIdState.getKey( ), _referenceCacheService.getState( entryIdState.getValue( ) ) );
             }
-            catch( Exception e )
+        }
+        return mapAppointmentState;
+    }
+
+    /**
+     * Apply the pending changes to the live index. Only called from the indexing worker
+     */
+    private void processIndexing( )
+    {
+        initIndexing( );
+
+        Set<Integer> listIdsToAdd = new HashSet<>( );
+        Set<Integer> listIdsToDelete = new HashSet<>( );
+
+        // Created and modified appointments are deleted first in case they are already indexed
+        for ( Map.Entry<Integer, Integer> entry : _changeQueue.drain( ).entrySet( ) )
+        {
+            listIdsToDelete.add( entry.getKey( ) );
+            if ( entry.getValue( ) != IndexerAction.TASK_DELETE )
             {
-                AppLogService.error( e.getMessage( ), e );
-                Thread.currentThread( ).interrupt( );
+                listIdsToAdd.add( entry.getKey( ) );
             }
-            finally
+        }
+
+        if ( _bRebuildIsRunning.get( ) )
+        {
+            _setIdToReplay.addAll( listIdsToDelete );
+        }
+
+        List<Integer> listIdAppointment = new ArrayList<>( TAILLE_LOT );
+        for ( Integer nIdAppointment : listIdsToDelete )
+        {
+            listIdAppointment.add( nIdAppointment );
+            if ( listIdAppointment.size( ) == TAILLE_LOT )
             {
-                _bIndexIsRunning.set( false );
+                deleteDocument( listIdAppointment );
+                listIdAppointment.clear( );
             }
         }
+        deleteDocument( listIdAppointment );
+        listIdAppointment.clear( );
+        _luceneAppointmentIndexFactory.refreshSearcher( );
+
+        processIdList( _index, listIdsToAdd );
 
-        private void processIndexing( )
+        _nUncommittedChanges += listIdsToDelete.size( );
+        if ( _nUncommittedChanges >= COMMIT_DOCS || System.currentTimeMillis( ) - _lLastCommitTime >= COMMIT_INTERVAL * 1000L )
         {
-            synchronized( LOCK )
-            {
-                initIndexing( false );
+            commitIndex( );
+        }
+    }
 
-                Set<Integer> listIdsToAdd = new HashSet<>( );
-                Set<Integer> listIdsToDelete = new HashSet<>( );
+    /**
+     * Durably commit the live index. The journal keeps the applied changes until they are committed. Only called from the indexing worker
+     */
+    private void commitIndex( )
+    {
+        if ( endIndexing( ) )
+        {
+            _nUncommittedChanges = 0;
+            _lLastCommitTime = System.currentTimeMillis( );
+            _changeQueue.compact( );
+        }
+    }
 
-                // Delete all record which must be delete
-                IndexerActionFilter filter = new IndexerActionFilter( );
-                filter.setIdTask( IndexerAction.TASK_DELETE );
-                for ( IndexerAction action : IndexerActionHome.getList( filter ) )
-                {
-                    listIdsToDelete.add( Integer.valueOf( action.getIdDocument( ) ) );
-                    IndexerActionHome.remove( action.getIdAction( ) );
-                }
+    /**
+     * Freeze the partitions of the live index which are over and idle. Only called from the indexing worker
+     */
+    private void freezeIndex( )
+    {
+        // The live index is read from the factory, so that a node which did not index anything since it started freezes it too
+        AppointmentIndex index = _luceneAppointmentIndexFactory.getIndex( );
+        if ( index != null )
+        {
+            try
+            {
+                index.freeze( );
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( "Unable to freeze the appointment index partitions", e );
+            }
+        }
+    }
 
-                // Update all record which must be update
-                filter.setIdTask( IndexerAction.TASK_MODIFY );
-                for ( IndexerAction action : IndexerActionHome.getList( filter ) )
-                {
-                    listIdsToDelete.add( Integer.valueOf( action.getIdDocument( ) ) );
-                    listIdsToAdd.add( Integer.valueOf( action.getIdDocument( ) ) );
-                    IndexerActionHome.remove( action.getIdAction( ) );
-                }
+    /**
+     * Publish the last commit of the live index to the replica nodes of the cluster. Only called from the indexing worker
+     */
+    private void publishIndex( )
+    {
+        if ( !_replicator.isPrimary( ) )
+        {
+            return;
+        }
+        // The live index is read from the factory, so that a primary node which did not index anything since it started publishes it too
+        AppointmentIndex index = _luceneAppointmentIndexFactory.getIndex( );
+        if ( index != null )
+        {
+            try
+            {
+                String strIndexName = _luceneAppointmentIndexFactory.getCurrentIndexName( );
+                _replicator.publish( strIndexName, _luceneAppointmentIndexFactory.getIndexPath( strIndexName ), index.getArchiveCutoff( ) );
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( "Unable to publish the appointment index", e );
+            }
+        }
+    }
 
-                // Update all record which must be update
-                filter.setIdTask( IndexerAction.TASK_CREATE );
-                for ( IndexerAction action : IndexerActionHome.getList( filter ) )
-                {
-                    listIdsToAdd.add( Integer.valueOf( action.getIdDocument( ) ) );
-                    IndexerActionHome.remove( action.getIdAction( ) );
-                }
+    /**
+     * Copy the last commit published by the primary node of the cluster into the local index, and switch the searches to it. Only called on a replica
+     * node, by the commit scheduler
+     */
+    private void replicateIndex( )
+    {
+        try
+        {
+            Properties manifest = _replicator.readNewManifest( );
+            if ( manifest == null )
+            {
+                return;
+            }
+            String strIndexName = AppointmentIndexReplicator.getIndexName( manifest );
+            _replicator.install( manifest, _luceneAppointmentIndexFactory.getIndexPath( strIndexName ) );
+            if ( _replicator.isReopenNeeded( manifest ) )
+            {
+                _luceneAppointmentIndexFactory.switchToReplicatedIndex( strIndexName );
+            }
+            else
+            {
+                _luceneAppointmentIndexFactory.refreshSearcher( );
+            }
+            _replicator.setInstalled( manifest );
+        }
+        catch( Exception e )
+        {
+            // An exception would cancel the next runs of the scheduler
+            AppLogService.error( "Unable to replicate the appointment index", e );
+        }
+    }
 
-                List<Query> queryList = new ArrayList<>( TAILLE_LOT );
-                for ( Integer nIdAppointment : listIdsToDelete )
-                {
-                    queryList.add( IntPoint.newExactQuery( AppointmentSearchItem.FIELD_ID_APPOINTMENT, nIdAppointment ) );
-                    if ( queryList.size( ) == TAILLE_LOT )
-                    {
-                        deleteDocument( queryList );
-                        queryList.clear( );
-                    }
-                }
-                deleteDocument( queryList );
-                queryList.clear( );
+    private void deleteDocument( List<Integer> listIdAppointment )
+    {
+        try
+        {
+            _index.deleteDocuments( listIdAppointment );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to delete document ", e );
+        }
+    }
 
-                processIdList( listIdsToAdd );
+    /**
+     * Move the appointments which are older than the archive age to the archive of the index. The archive cutoff is moved first, so that the
+     * appointments indexed from now on are routed by the new cutoff, then the documents of the partitions starting before it are moved to the archive.
+     * Called by the archive daemon.
+     * 
+     * @return the logs of the run
+     */
+    public String archiveIndex( )
+    {
+        if ( ARCHIVE_AGE <= 0 )
+        {
+            return "The archive of the appointment index is disabled";
+        }
+        if ( _replicator.isReplica( ) )
+        {
+            return "The appointment index is archived by the primary node of the cluster";
+        }
+        if ( _bRebuildIsRunning.get( ) )
+        {
+            return "The appointment index is being rebuilt, the appointments will be archived at the next run";
+        }
+        try
+        {
+            // The live index is only changed by the indexing worker
+            return submitToIndexingWorker( this::processArchive ).get( );
+        }
+        catch( RejectedExecutionException | ExecutionException e )
+        {
+            AppLogService.error( "Unable to archive the appointment index", e );
+            return "Unable to archive the appointment index : " + e.getMessage( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            return "The archive of the appointment index has been interrupted";
+        }
+    }
 
-                endIndexing( );
-            }
+    /**
+     * Move the appointments which are older than the archive age to the archive of the live index. Their documents are copied as they are, without
+     * being loaded and analyzed again. Only called from the indexing worker
+     * 
+     * @return the logs of the run
+     * @throws IOException
+     *             if the archive cutoff cannot be saved or the documents cannot be moved
+     */
+    private String processArchive( ) throws IOException
+    {
+        initIndexing( );
+        if ( _index == null )
+        {
+            return "Unable to open the appointment index";
+        }
+        long lArchiveCutoff = Timestamp.valueOf( LocalDate.now( ).minusDays( ARCHIVE_AGE ).atStartOfDay( ) ).getTime( );
+        if ( lArchiveCutoff > _index.getArchiveCutoff( ) )
+        {
+            _index.setArchiveCutoff( lArchiveCutoff );
         }
 
-        private void processIdList( Collection<Integer> idList )
+        long lStart = System.currentTimeMillis( );
+        int nbDocuments = _index.moveToArchive( );
+        _luceneAppointmentIndexFactory.refreshSearcher( );
+        return nbDocuments + " appointments moved to the archive of the index in " + ( System.currentTimeMillis( ) - lStart ) + " ms";
+    }
+
+    /**
+     * Rebuild the whole index next to the live one, then switch the searches to the rebuilt index. The incremental indexing goes on with the live index
+     * during the rebuild, and the appointments it indexed are indexed again once the rebuilt index is live. The batches of appointments are indexed in
+     * parallel by a pool of workers sharing the writer of the rebuilt index, which is committed once at the end. The archive of the live index, if any,
+     * is copied into the rebuilt index rather than indexed again.
+     */
+    private class RebuildRunnable implements Runnable
+    {
+        private List<Integer> _idList;
+        private final BatchTimes _batchTimes = new BatchTimes( );
+
+        @Override
+        public void run( )
         {
-            List<Integer> partialIdList = new ArrayList<>( TAILLE_LOT );
-            for ( Integer nIdAppointment : idList )
+            try
             {
-                partialIdList.add( nIdAppointment );
-                if ( partialIdList.size( ) == TAILLE_LOT )
-                {
-                    AppointmentFilterDTO filter = new AppointmentFilterDTO( );
-                    filter.setListIdAppointment( partialIdList );
-
-                    List<AppointmentDTO> appointmentList = AppointmentService.findListAppointmentsDTOByFilter( filter );
-                    indexAppointmentList( appointmentList );
-                    partialIdList.clear( );
-                    appointmentList.clear( );
-                }
+                AppointmentIndex index = _luceneAppointmentIndexFactory.getRebuildIndex( );
+                _idList = selectIdList( _luceneAppointmentIndexFactory.getIndex( ), index );
+                long lStart = System.currentTimeMillis( );
+                int nbDocuments = rebuildIndex( index );
+                long lDuration = Math.max( System.currentTimeMillis( ) - lStart, 1 );
+                AppLogService.info( "Appointment index rebuilt with " + REBUILD_THREADS + " workers : " + nbDocuments + " documents in " + lDuration
+                        + " ms (" + ( nbDocuments * 1000L / lDuration ) + " docs/sec), " + _batchTimes );
+
+                // The live index is only changed by the indexing worker
+                submitToIndexingWorker( this::switchToRebuiltIndex ).get( );
             }
-            if ( CollectionUtils.isNotEmpty( partialIdList ) )
+            catch( Exception e )
             {
-                AppointmentFilterDTO filter = new AppointmentFilterDTO( );
-                filter.setListIdAppointment( partialIdList );
-
-                List<AppointmentDTO> appointmentList = AppointmentService.findListAppointmentsDTOByFilter( filter );
-                indexAppointmentList( appointmentList );
-                partialIdList.clear( );
-                appointmentList.clear( );
+                AppLogService.error( "Unable to rebuild the appointment index", e );
+                _luceneAppointmentIndexFactory.abortRebuild( );
+            }
+            finally
+            {
+                _bRebuildIsRunning.set( false );
             }
         }
 
         /**
-         * {@inheritDoc}
+         * Select the appointments to index into the rebuilt index. When the live index has an archive, it is copied into the rebuilt index, and only the
+         * appointments starting from its cutoff are selected, with those of the live partitions not archived yet.
+         * 
+         * @param liveIndex
+         *            the live index, may be null
+         * @param index
+         *            the rebuilt index
+         * @return the ids of the appointments
+         * @throws IOException
+         *             if the archive cannot be copied
          */
-        private void indexAppointmentList( List<AppointmentDTO> listAppointment )
+        private List<Integer> selectIdList( AppointmentIndex liveIndex, AppointmentIndex index ) throws IOException
         {
-            if ( _indexWriter == null || !_indexWriter.isOpen( ) )
+            if ( liveIndex == null || liveIndex.getArchiveCutoff( ) == Long.MIN_VALUE )
             {
-                initIndexing( true );
+                return new ArrayList<>( AppointmentHome.selectAllAppointmentId( ) );
             }
 
-            Map<Integer, Form> mapForms = FormHome.findAllForms( ).stream( ).collect( Collectors.toMap( Form::getIdForm, Function.identity( ) ) );
-            List<Document> documentList = new ArrayList<>( );
+            long lArchiveCutoff = liveIndex.getArchiveCutoff( );
+            index.copyArchive( liveIndex );
+            Set<Integer> setIdAppointment = new LinkedHashSet<>( AppointmentIdHome.findIdStartingFrom( new Timestamp( lArchiveCutoff ) ) );
+            setIdAppointment.addAll( liveIndex.findIdsStartingBefore( lArchiveCutoff ) );
+            return new ArrayList<>( setIdAppointment );
+        }
 
-            for ( AppointmentDTO appointment : listAppointment )
-            {
-                if ( appointment.getIdUser( ) > 0 )
-                {
-                    User user = UserHome.findByPrimaryKey( appointment.getIdUser( ) );
-                    appointment.setUser( user );
-                }
+        /**
+         * Switch the searches to the rebuilt index, then replay the changes indexed in the previous index during the rebuild
+         * 
+         * @return null
+         * @throws IOException
+         *             if the rebuilt index cannot be committed
+         */
+        private Void switchToRebuiltIndex( ) throws IOException
+        {
+            _luceneAppointmentIndexFactory.switchToRebuiltIndex( );
+            initIndexing( );
+            _bRebuildIsRunning.set( false );
 
-                int formId = appointment.getSlot( ).get( 0 ).getIdForm( );
-                Form form = mapForms.get( formId );
+            for ( Integer nIdAppointment : _setIdToReplay )
+            {
+                _changeQueue.add( nIdAppointment, IndexerAction.TASK_MODIFY );
+            }
+            _setIdToReplay.clear( );
+            processIndexing( );
+            return null;
+        }
 
-                State appointmentState = null;
-                if ( _stateService != null )
-                {
-                    appointmentState = _stateService.findByResource( appointment.getIdAppointment( ), Appointment.APPOINTMENT_RESOURCE_TYPE,
-                            form.getIdWorkflow( ) );
-                }
-                Document doc = null;
-                try
-                {
-                    doc = getDocument( appointment, appointmentState, form.getIdCategory( ) );
-                }
-                catch( Exception e )
+        /**
+         * Index all the appointments into the rebuilt index, one batch per task of the worker pool
+         * 
+         * @param index
+         *            the rebuilt index
+         * @return the number of indexed documents
+         * @throws InterruptedException
+         *             if the rebuild is interrupted
+         * @throws ExecutionException
+         *             if the indexing of a batch failed
+         */
+        private int rebuildIndex( AppointmentIndex index ) throws InterruptedException, ExecutionException
+        {
+            ExecutorService executor = Executors.newFixedThreadPool( REBUILD_THREADS, newThreadFactory( THREAD_NAME_REBUILD_WORKER ) );
+            try
+            {
+                List<Future<Integer>> listFuture = new ArrayList<>( );
+                for ( int nFrom = 0; nFrom < _idList.size( ); nFrom += TAILLE_LOT )
                 {
-                    AppLogService.error( "Unable to index appointment with id " + appointment.getIdAppointment( ), e );
+                    List<Integer> partialIdList = _idList.subList( nFrom, Math.min( nFrom + TAILLE_LOT, _idList.size( ) ) );
+                    listFuture.add( executor.submit( ( ) -> indexBatch( index, partialIdList, _batchTimes ) ) );
                 }
 
-                if ( doc != null )
+                int nbDocuments = 0;
+                for ( Future<Integer> future : listFuture )
                 {
-                    documentList.add( doc );
+                    nbDocuments += future.get( );
                 }
+                return nbDocuments;
+            }
+            finally
+            {
+                executor.shutdownNow( );
             }
-            addDocuments( documentList );
-            endIndexing( );
+        }
+    }
+
+    /**
+     * Times spent loading and indexing batches of appointments, summed over the workers of a rebuild
+     */
+    private static final class BatchTimes
+    {
+        private final LongAdder _nBatches = new LongAdder( );
+        private final LongAdder _lLoadingTime = new LongAdder( );
+        private final LongAdder _lIndexingTime = new LongAdder( );
+
+        /**
+         * Add the times of a batch
+         * 
+         * @param lLoadingTime
+         *            the time spent loading the appointments, in ms
+         * @param lIndexingTime
+         *            the time spent building and adding their documents, in ms
+         */
+        void add( long lLoadingTime, long lIndexingTime )
+        {
+            _nBatches.increment( );
+            _lLoadingTime.add( lLoadingTime );
+            _lIndexingTime.add( lIndexingTime );
         }
 
-        private void addDocuments( List<Document> documentList )
+        @Override
+        public String toString( )
         {
-            try
-            {
-                _indexWriter.addDocuments( documentList );
-            }
-            catch( IOException e )
-            {
-                AppLogService.error( "Unable to index documents", e );
-            }
-            documentList.clear( );
+            long lBatches = Math.max( _nBatches.sum( ), 1 );
+            return "per batch of " + TAILLE_LOT + " ids : loading " + ( _lLoadingTime.sum( ) / lBatches ) + " ms, indexing "
+                    + ( _lIndexingTime.sum( ) / lBatches ) + " ms";
         }
+    }
 
-        private void deleteDocument( List<Query> luceneQueryList )
+    private class IndexerRunnable implements Runnable
+    {
+        @Override
+        public void run( )
         {
+            // The changes added from now on need another run
+            _bIndexingScheduled.set( false );
             try
             {
-                _indexWriter.deleteDocuments( luceneQueryList.toArray( new Query [ luceneQueryList.size( )] ) );
+                processIndexing( );
             }
-            catch( IOException e )
+            catch( Exception e )
             {
-                AppLogService.error( "Unable to delete document ", e );
+                AppLogService.error( e.getMessage( ), e );
             }
         }
     }
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.util.BytesRef;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+
+/**
+ * Collector counting the facets of a multiview search while the page is collected. The query must not hold the form, category and status filters :
+ * they are checked here on the doc values, the hits matching all of them are given to the page collector and counted in every dimension, and the hits
+ * missing only one of them are counted in this dimension only.
+ */
+class AppointmentFacetCollector implements Collector
+{
+    private static final BytesRef CANCELLED = new BytesRef( Boolean.TRUE.toString( ) );
+
+    private final Collector _pageCollector;
+    private final AppointmentFacetCounts _facetCounts;
+    private final int _nIdForm;
+    private final int _nIdCategory;
+    private final int _nStatus;
+    private int _nbHits;
+
+    /**
+     * Constructor
+     * 
+     * @param pageCollector
+     *            the collector of the page
+     * @param filter
+     *            the filter of the search
+     * @param facetCounts
+     *            the facet counts to fill
+     */
+    AppointmentFacetCollector( Collector pageCollector, MultiviewFilter filter, AppointmentFacetCounts facetCounts )
+    {
+        _pageCollector = pageCollector;
+        _facetCounts = facetCounts;
+        _nIdForm = filter.getIdForm( );
+        _nIdCategory = filter.getIdCategory( );
+        _nStatus = filter.getStatus( );
+    }
+
+    /**
+     * @return the number of hits matching all the filters
+     */
+    int getTotalHits( )
+    {
+        return _nbHits;
+    }
+
+    @Override
+    public ScoreMode scoreMode( )
+    {
+        return _pageCollector.scoreMode( ).needsScores( ) ? ScoreMode.COMPLETE : ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    @Override
+    public LeafCollector getLeafCollector( LeafReaderContext context ) throws IOException
+    {
+        LeafCollector pageLeafCollector;
+        try
+        {
+            pageLeafCollector = _pageCollector.getLeafCollector( context );
+        }
+        catch( CollectionTerminatedException e )
+        {
+            pageLeafCollector = null;
+        }
+
+        LeafReader reader = context.reader( );
+        return new FacetLeafCollector( pageLeafCollector, DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_ID_FORM ),
+                DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_ID_CATEGORY ),
+                DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_ID_WORKFLOW_STATE ),
+                DocValues.getSorted( reader, AppointmentSearchItem.FIELD_CANCELLED ) );
+    }
+
+    /**
+     * Collector of the facets of a segment
+     */
+    private final class FacetLeafCollector implements LeafCollector
+    {
+        private LeafCollector _pageLeafCollector;
+        private final NumericDocValues _idFormValues;
+        private final NumericDocValues _idCategoryValues;
+        private final NumericDocValues _idStateValues;
+        private final SortedDocValues _cancelledValues;
+        private final int _nCancelledOrd;
+
+        FacetLeafCollector( LeafCollector pageLeafCollector, NumericDocValues idFormValues, NumericDocValues idCategoryValues,
+                NumericDocValues idStateValues, SortedDocValues cancelledValues ) throws IOException
+        {
+            _pageLeafCollector = pageLeafCollector;
+            _idFormValues = idFormValues;
+            _idCategoryValues = idCategoryValues;
+            _idStateValues = idStateValues;
+            _cancelledValues = cancelledValues;
+            _nCancelledOrd = cancelledValues.lookupTerm( CANCELLED );
+        }
+
+        @Override
+        public void setScorer( Scorable scorer ) throws IOException
+        {
+            if ( _pageLeafCollector != null )
+            {
+                _pageLeafCollector.setScorer( scorer );
+            }
+        }
+
+        @Override
+        public void collect( int doc ) throws IOException
+        {
+            int nIdForm = _idFormValues.advanceExact( doc ) ? (int) _idFormValues.longValue( ) : -1;
+            int nIdCategory = _idCategoryValues.advanceExact( doc ) ? (int) _idCategoryValues.longValue( ) : -1;
+            int nIdState = _idStateValues.advanceExact( doc ) ? (int) _idStateValues.longValue( ) : -1;
+            boolean bCancelled = _nCancelledOrd >= 0 && _cancelledValues.advanceExact( doc ) && _cancelledValues.ordValue( ) == _nCancelledOrd;
+            int nStatus = bCancelled ? AppointmentFacetCounts.STATUS_CANCELLED : AppointmentFacetCounts.STATUS_RESERVED;
+
+            boolean bFormMatch = _nIdForm <= 0 || nIdForm == _nIdForm;
+            boolean bCategoryMatch = _nIdCategory <= 0 || nIdCategory == _nIdCategory;
+            boolean bStatusMatch = _nStatus == -1 || nStatus == _nStatus;
+
+            if ( bFormMatch && bCategoryMatch && bStatusMatch )
+            {
+                _nbHits++;
+                AppointmentFacetCounts.increment( _facetCounts.getCountByForm( ), nIdForm );
+                AppointmentFacetCounts.increment( _facetCounts.getCountByCategory( ), nIdCategory );
+                AppointmentFacetCounts.increment( _facetCounts.getCountByStatus( ), nStatus );
+                if ( nIdState != -1 )
+                {
+                    AppointmentFacetCounts.increment( _facetCounts.getCountByState( ), nIdState );
+                }
+                collectPage( doc );
+            }
+            else
+                if ( !bFormMatch && bCategoryMatch && bStatusMatch )
+                {
+                    AppointmentFacetCounts.increment( _facetCounts.getCountByForm( ), nIdForm );
+                }
+                else
+                    if ( bFormMatch && !bCategoryMatch && bStatusMatch )
+                    {
+                        AppointmentFacetCounts.increment( _facetCounts.getCountByCategory( ), nIdCategory );
+                    }
+                    else
+                        if ( bFormMatch && bCategoryMatch )
+                        {
+                            AppointmentFacetCounts.increment( _facetCounts.getCountByStatus( ), nStatus );
+                        }
+        }
+
+        /**
+         * Give a hit to the page collector, until it has collected enough hits in this segment
+         * 
+         * @param doc
+         *            the hit
+         * @throws IOException
+         *             - if there is a low level IO error
+         */
+        private void collectPage( int doc ) throws IOException
+        {
+            if ( _pageLeafCollector != null )
+            {
+                try
+                {
+                    _pageLeafCollector.collect( doc );
+                }
+                catch( CollectionTerminatedException e )
+                {
+                    _pageLeafCollector = null;
+                }
+            }
+        }
+    }
+}
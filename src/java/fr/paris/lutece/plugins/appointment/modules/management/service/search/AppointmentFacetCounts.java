@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts of the appointments of a multiview search by form, category, workflow state and status. The count of a value of a dimension is the number of
+ * appointments which would match the search if the filter of this dimension was set to this value, so that the counts of the other forms, categories or
+ * status stay visible while one of them is selected.
+ */
+public class AppointmentFacetCounts
+{
+    /**
+     * Status of the reserved appointments, as in the status filter
+     */
+    public static final int STATUS_RESERVED = 0;
+
+    /**
+     * Status of the cancelled appointments, as in the status filter
+     */
+    public static final int STATUS_CANCELLED = 1;
+
+    private final Map<Integer, Integer> _mapCountByForm = new HashMap<>( );
+    private final Map<Integer, Integer> _mapCountByCategory = new HashMap<>( );
+    private final Map<Integer, Integer> _mapCountByState = new HashMap<>( );
+    private final Map<Integer, Integer> _mapCountByStatus = new HashMap<>( );
+
+    /**
+     * @return the number of appointments by form id
+     */
+    public Map<Integer, Integer> getCountByForm( )
+    {
+        return _mapCountByForm;
+    }
+
+    /**
+     * @return the number of appointments by category id
+     */
+    public Map<Integer, Integer> getCountByCategory( )
+    {
+        return _mapCountByCategory;
+    }
+
+    /**
+     * @return the number of appointments by workflow state id, the appointments without state are not counted
+     */
+    public Map<Integer, Integer> getCountByState( )
+    {
+        return _mapCountByState;
+    }
+
+    /**
+     * @return the number of appointments by status, {@link #STATUS_RESERVED} or {@link #STATUS_CANCELLED}
+     */
+    public Map<Integer, Integer> getCountByStatus( )
+    {
+        return _mapCountByStatus;
+    }
+
+    /**
+     * Clear the counts
+     */
+    public void clear( )
+    {
+        _mapCountByForm.clear( );
+        _mapCountByCategory.clear( );
+        _mapCountByState.clear( );
+        _mapCountByStatus.clear( );
+    }
+
+    /**
+     * Increment a count
+     * 
+     * @param mapCount
+     *            the counts of a dimension
+     * @param nValue
+     *            the value of the dimension
+     */
+    static void increment( Map<Integer, Integer> mapCount, int nValue )
+    {
+        mapCount.merge( nValue, 1, Integer::sum );
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.search.FieldDoc;
+
+/**
+ * Keeps the last hit of the visited pages of a multiview search, so that the next page can be collected with a searchAfter instead of ranking all the
+ * previous pages again. Only the sort values of the hits are kept : their doc ids belong to the reader of the search, which is replaced by the refresh
+ * of the index, while the sort values end with the appointment id and tell each hit apart.
+ */
+public class AppointmentSearchCursor
+{
+    private final Map<Integer, FieldDoc> _mapLastDocByPage = new HashMap<>( );
+
+    /**
+     * Tell if the hit to search after is known for a page
+     * 
+     * @param nPageIndex
+     *            the page index, starting at 1
+     * @return true if the page can be collected with a searchAfter
+     */
+    public boolean isAvailable( int nPageIndex )
+    {
+        return nPageIndex > 1 && _mapLastDocByPage.containsKey( nPageIndex - 1 );
+    }
+
+    /**
+     * @param nPageIndex
+     *            the page index, starting at 1
+     * @return the last hit of the previous page, or null if unknown
+     */
+    public FieldDoc getAfter( int nPageIndex )
+    {
+        return _mapLastDocByPage.get( nPageIndex - 1 );
+    }
+
+    /**
+     * @param nPageIndex
+     *            the page index, starting at 1
+     * @param lastDoc
+     *            the last hit of the page
+     */
+    public void setLastDoc( int nPageIndex, FieldDoc lastDoc )
+    {
+        // No doc id comes after Integer.MAX_VALUE, so that the next page only depends on the sort values
+        _mapLastDocByPage.put( nPageIndex, new FieldDoc( Integer.MAX_VALUE, Float.NaN, lastDoc.fields ) );
+    }
+
+    /**
+     * Forget all the visited pages, to be called when the filter, the sort or the page size change
+     */
+    public void reset( )
+    {
+        _mapLastDocByPage.clear( );
+    }
+}
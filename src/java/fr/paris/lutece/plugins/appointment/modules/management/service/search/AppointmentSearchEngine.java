@@ -37,139 +37,369 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.inject.Inject;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.document.LongPoint;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexOrDocValuesQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
-import org.apache.lucene.search.SortedNumericSortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TotalHits;
 import org.apache.lucene.search.WildcardQuery;
-import org.apache.lucene.store.Directory;
 
 import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
 import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+import fr.paris.lutece.plugins.appointment.modules.management.service.indexer.AppointmentNGramAnalyzer;
 import fr.paris.lutece.plugins.appointment.modules.management.service.indexer.LuceneAppointmentIndexFactory;
 import fr.paris.lutece.portal.service.search.LuceneSearchEngine;
 import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 public class AppointmentSearchEngine implements IAppointmentSearchEngine
 {
+    private static final int TOTAL_HITS_THRESHOLD = AppPropertiesService.getPropertyInt( "appointment-management.search.totalHitsThreshold", 1000 );
+    private static final int CACHE_SIZE = AppPropertiesService.getPropertyInt( "appointment-management.search.cache.size", 200 );
+    private static final int CACHE_MAX_PAGE_SIZE = AppPropertiesService.getPropertyInt( "appointment-management.search.cache.maxPageSize", 100 );
+
+    private final AppointmentSearchResultCache _resultCache = new AppointmentSearchResultCache( CACHE_SIZE );
 
     @Inject
     private LuceneAppointmentIndexFactory _indexFactory;
 
     @Override
     public int getSearchResult( List<AppointmentSearchItem> result, MultiviewFilter filter, int nStartIndex, int nPageSize, AppointmentSortConfig sortConfig )
+    {
+        return search( result, null, filter, null, 0, nStartIndex, nPageSize, sortConfig );
+    }
+
+    @Override
+    public int getSearchResult( List<AppointmentSearchItem> result, MultiviewFilter filter, AppointmentSearchCursor cursor, int nPageIndex, int nPageSize,
+            AppointmentSortConfig sortConfig )
+    {
+        return getSearchResult( result, filter, cursor, nPageIndex, nPageSize, sortConfig, null );
+    }
+
+    @Override
+    public int getSearchResult( List<AppointmentSearchItem> result, MultiviewFilter filter, AppointmentSearchCursor cursor, int nPageIndex, int nPageSize,
+            AppointmentSortConfig sortConfig, AppointmentFacetCounts facetCounts )
+    {
+        return search( result, facetCounts, filter, cursor, nPageIndex, ( nPageIndex - 1 ) * nPageSize, nPageSize, sortConfig );
+    }
+
+    /**
+     * Search one page of results. When the cursor knows the last hit of the previous page, only the hits of the page are collected with a searchAfter,
+     * otherwise the hits are ranked from the first one. The facets, if asked for, are counted in the same pass. The pages of up to
+     * appointment-management.search.cache.maxPageSize results are cached until the searcher is refreshed.
+     * 
+     * @param result
+     *            the list to fill with the page results
+     * @param facetCounts
+     *            the facet counts to fill, may be null
+     * @param filter
+     *            the filter
+     * @param cursor
+     *            the cursor of the visited pages, may be null
+     * @param nPageIndex
+     *            the page index, used with the cursor only
+     * @param nStartIndex
+     *            the index of the first result of the page
+     * @param nPageSize
+     *            the page size, 0 for all the results
+     * @param sortConfig
+     *            the sort config
+     * @return total number of results.
+     */
+    private int search( List<AppointmentSearchItem> result, AppointmentFacetCounts facetCounts, MultiviewFilter filter, AppointmentSearchCursor cursor,
+            int nPageIndex, int nStartIndex, int nPageSize, AppointmentSortConfig sortConfig )
     {
         int nbResults = 0;
-        Query query = createQuery( filter );
+        Query query = createQuery( filter, true );
         Sort sort = buildLuceneSort( sortConfig );
+        boolean bSearchAfter = cursor != null && nPageSize > 0 && cursor.isAvailable( nPageIndex );
 
-        try ( Directory directory = _indexFactory.getDirectory( ) ; IndexReader ir = DirectoryReader.open( directory ) ; )
+        IndexSearcher searcher = null;
+        try
         {
-            IndexSearcher searcher = new IndexSearcher( ir );
-            TopDocs topDocs = null;
-            // Get results documents
-            if ( sort != null )
+            searcher = acquireSearcher( filter );
+
+            Object readerKey = _resultCache.isEnabled( ) ? getReaderKey( searcher ) : null;
+            List<Object> cacheKey = null;
+            if ( readerKey != null && nPageSize > 0 && nPageSize <= CACHE_MAX_PAGE_SIZE )
             {
-                topDocs = searcher.search( query, LuceneSearchEngine.MAX_RESPONSES, sort );
+                cacheKey = AppointmentSearchResultCache.createKey( filter, sortConfig, nStartIndex, nPageSize, facetCounts != null );
+                AppointmentSearchResultCache.CachedResult cachedResult = _resultCache.get( cacheKey, readerKey );
+                if ( cachedResult != null )
+                {
+                    return cachedResult.copyTo( result, cursor, nPageIndex, facetCounts );
+                }
+            }
+            int nResultStart = result.size( );
+
+            FieldDoc after = bSearchAfter ? cursor.getAfter( nPageIndex ) : null;
+            int nFirstIndex = bSearchAfter ? 0 : nStartIndex;
+
+            // Only the hits up to the end of the page are collected, the total is counted apart
+            int nNumHits;
+            if ( nPageSize > 0 )
+            {
+                nNumHits = nFirstIndex + nPageSize;
             }
             else
             {
-                topDocs = searcher.search( query, LuceneSearchEngine.MAX_RESPONSES );
+                nbResults = searcher.count( query );
+                nNumHits = Math.min( nbResults, LuceneSearchEngine.MAX_RESPONSES );
+            }
+
+            ScoreDoc [ ] hits = new ScoreDoc [ 0];
+            if ( nNumHits > 0 )
+            {
+                TopFieldCollector collector = TopFieldCollector.create( sort, nNumHits, after, TOTAL_HITS_THRESHOLD );
+                if ( facetCounts != null )
+                {
+                    // The facet collector checks the facet dimensions itself and counts all the hits
+                    facetCounts.clear( );
+                    AppointmentFacetCollector facetCollector = new AppointmentFacetCollector( collector, filter, facetCounts );
+                    searcher.search( createQuery( filter, false ), facetCollector );
+                    nbResults = facetCollector.getTotalHits( );
+                }
+                else
+                {
+                    searcher.search( query, collector );
+                }
+                TopDocs topDocs = collector.topDocs( );
+                hits = topDocs.scoreDocs;
+                if ( nPageSize > 0 && facetCounts == null )
+                {
+                    nbResults = countHits( searcher, query, topDocs.totalHits );
+                }
             }
 
-            ScoreDoc [ ] hits = topDocs.scoreDocs;
-            nbResults = hits.length;
             int nMaxIndex = hits.length;
             if ( nPageSize > 0 )
             {
-                nMaxIndex = Math.min( nStartIndex + nPageSize, hits.length );
+                nMaxIndex = Math.min( nFirstIndex + nPageSize, hits.length );
             }
 
-            for ( int i = nStartIndex; i < nMaxIndex; i++ )
+            // The page is read from the doc values, the stored fields are not loaded
+            AppointmentSearchItemLoader.load( searcher.getIndexReader( ), hits, nFirstIndex, nMaxIndex, result );
+
+            FieldDoc lastDoc = null;
+            if ( nMaxIndex > nFirstIndex )
+            {
+                lastDoc = (FieldDoc) hits [nMaxIndex - 1];
+            }
+            if ( cursor != null && lastDoc != null )
             {
-                Document document = searcher.doc( hits [i].doc );
-                result.add( new AppointmentSearchItem( document ) );
+                cursor.setLastDoc( nPageIndex, lastDoc );
+            }
+
+            if ( cacheKey != null )
+            {
+                _resultCache.put( cacheKey, new AppointmentSearchResultCache.CachedResult( readerKey,
+                        result.subList( nResultStart, result.size( ) ), nbResults, lastDoc, facetCounts ) );
             }
         }
         catch( IOException e )
         {
             AppLogService.error( e.getMessage( ), e );
         }
+        finally
+        {
+            _indexFactory.releaseSearcher( searcher );
+        }
         return nbResults;
     }
 
-    private Query createQuery( MultiviewFilter filter )
+    @Override
+    public int getSearchResultCount( MultiviewFilter filter )
     {
-        BooleanQuery.Builder builder = new BooleanQuery.Builder( );
-        if ( filter.getIdCategory( ) > 0 )
+        IndexSearcher searcher = null;
+        try
+        {
+            searcher = acquireSearcher( filter );
+            return searcher.count( createQuery( filter, true ) );
+        }
+        catch( IOException e )
         {
-            Query query = IntPoint.newExactQuery( AppointmentSearchItem.FIELD_ID_CATEGORY, filter.getIdCategory( ) );
-            builder.add( query, BooleanClause.Occur.MUST );
+            AppLogService.error( e.getMessage( ), e );
         }
-        if ( filter.getIdForm( ) > 0 )
+        finally
         {
-            Query query = IntPoint.newExactQuery( AppointmentSearchItem.FIELD_ID_FORM, filter.getIdForm( ) );
-            builder.add( query, BooleanClause.Occur.MUST );
+            _indexFactory.releaseSearcher( searcher );
         }
-        else
+        return 0;
+    }
+
+    /**
+     * Get the exact number of hits of a query. The collector counts exactly up to the total hits threshold, beyond it the hits are counted apart.
+     * 
+     * @param searcher
+     *            the searcher
+     * @param query
+     *            the query
+     * @param totalHits
+     *            the total hits given by the collector
+     * @return the number of hits
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private int countHits( IndexSearcher searcher, Query query, TotalHits totalHits ) throws IOException
+    {
+        if ( totalHits.relation == TotalHits.Relation.EQUAL_TO )
         {
-            Query query = IntPoint.newSetQuery( AppointmentSearchItem.FIELD_ID_FORM, filter.getIdFormList( ) );
-            builder.add( query, BooleanClause.Occur.MUST );
+            return (int) totalHits.value;
         }
-        if ( StringUtils.isNotEmpty( filter.getFirstName( ) ) )
+        return searcher.count( query );
+    }
+
+    /**
+     * Build the query of a filter. Nothing is scored, so every criterion is a filter clause. The order of the clauses does not matter : the conjunction
+     * leads with the clause of the lowest cost. The filter has no criterion on the number of booked seats, which is only displayed and sorted, so the
+     * date range is the only range of the query.
+     * 
+     * @param filter
+     *            the filter
+     * @param bFacetDimensions
+     *            false to leave out the form, category and status filters, which are then checked by the facet collector. The authorized forms are always
+     *            filtered
+     * @return the query
+     */
+    Query createQuery( MultiviewFilter filter, boolean bFacetDimensions )
+    {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder( );
+        boolean bFormFiltered = bFacetDimensions && filter.getIdForm( ) > 0;
+        if ( bFormFiltered )
         {
-            Query query = new WildcardQuery( new Term( AppointmentSearchItem.FIELD_FIRST_NAME_SEARCH,
-                    WildcardQuery.WILDCARD_STRING + filter.getFirstName( ).toLowerCase( ) + WildcardQuery.WILDCARD_STRING ) );
-            builder.add( query, BooleanClause.Occur.MUST );
+            builder.add( IntPoint.newExactQuery( AppointmentSearchItem.FIELD_ID_FORM, filter.getIdForm( ) ), BooleanClause.Occur.FILTER );
         }
         if ( StringUtils.isNotEmpty( filter.getLastName( ) ) )
         {
-            Query query = new WildcardQuery( new Term( AppointmentSearchItem.FIELD_LAST_NAME_SEARCH,
-                    WildcardQuery.WILDCARD_STRING + filter.getLastName( ).toLowerCase( ) + WildcardQuery.WILDCARD_STRING ) );
-            builder.add( query, BooleanClause.Occur.MUST );
+            Query query = createContainsQuery( AppointmentSearchItem.FIELD_LAST_NAME_SEARCH, AppointmentSearchItem.FIELD_LAST_NAME_NGRAM,
+                    filter.getLastName( ) );
+            builder.add( query, BooleanClause.Occur.FILTER );
         }
         if ( StringUtils.isNotEmpty( filter.getEmail( ) ) )
         {
-            Query query = new WildcardQuery( new Term( AppointmentSearchItem.FIELD_MAIL_SEARCH,
-                    WildcardQuery.WILDCARD_STRING + filter.getEmail( ).toLowerCase( ) + WildcardQuery.WILDCARD_STRING ) );
-            builder.add( query, BooleanClause.Occur.MUST );
+            Query query = createContainsQuery( AppointmentSearchItem.FIELD_MAIL_SEARCH, AppointmentSearchItem.FIELD_MAIL_NGRAM, filter.getEmail( ) );
+            builder.add( query, BooleanClause.Occur.FILTER );
         }
         if ( StringUtils.isNotEmpty( filter.getPhoneNumber( ) ) )
         {
-            Query query = new WildcardQuery( new Term( AppointmentSearchItem.FIELD_PHONE_NUMBER,
-                    WildcardQuery.WILDCARD_STRING + filter.getPhoneNumber( ).toLowerCase( ) + WildcardQuery.WILDCARD_STRING ) );
-            builder.add( query, BooleanClause.Occur.MUST );
+            Query query = createContainsQuery( AppointmentSearchItem.FIELD_PHONE_NUMBER, AppointmentSearchItem.FIELD_PHONE_NUMBER_NGRAM,
+                    filter.getPhoneNumber( ) );
+            builder.add( query, BooleanClause.Occur.FILTER );
+        }
+        if ( StringUtils.isNotEmpty( filter.getFirstName( ) ) )
+        {
+            Query query = createContainsQuery( AppointmentSearchItem.FIELD_FIRST_NAME_SEARCH, AppointmentSearchItem.FIELD_FIRST_NAME_NGRAM,
+                    filter.getFirstName( ) );
+            builder.add( query, BooleanClause.Occur.FILTER );
+        }
+        if ( bFacetDimensions && filter.getIdCategory( ) > 0 )
+        {
+            builder.add( IntPoint.newExactQuery( AppointmentSearchItem.FIELD_ID_CATEGORY, filter.getIdCategory( ) ), BooleanClause.Occur.FILTER );
         }
-        builder.add( createDateRangeQuery( filter ), BooleanClause.Occur.MUST );
-        if ( filter.getStatus( ) != -1 )
+        Query dateRangeQuery = createDateRangeQuery( filter );
+        if ( dateRangeQuery != null )
+        {
+            builder.add( dateRangeQuery, BooleanClause.Occur.FILTER );
+        }
+        if ( bFacetDimensions && filter.getStatus( ) != -1 )
         {
             Query query = new TermQuery( new Term( AppointmentSearchItem.FIELD_CANCELLED, String.valueOf( filter.getStatus( ) == 1 ) ) );
-            builder.add( query, BooleanClause.Occur.MUST );
+            builder.add( query, BooleanClause.Occur.FILTER );
+        }
+        if ( !bFormFiltered )
+        {
+            // The authorized forms query is reused between the searches of a user, so that the searcher caches it per segment
+            Query query = filter.getIdFormQuery( );
+            if ( query == null )
+            {
+                query = IntPoint.newSetQuery( AppointmentSearchItem.FIELD_ID_FORM, filter.getIdFormList( ) );
+            }
+            builder.add( query, BooleanClause.Occur.FILTER );
+        }
+
+        return builder.build( );
+    }
+
+    /**
+     * Build a query matching the documents whose field contains a value. A value of at least one n-gram is searched as the phrase of its n-grams on
+     * the n-gram companion field, which avoids the scan of the whole term dictionary of a leading wildcard query. Shorter values fall back to the
+     * wildcard query on the search field.
+     * 
+     * @param strSearchField
+     *            the lower cased search field
+     * @param strNGramField
+     *            the n-gram companion field
+     * @param strValue
+     *            the searched value
+     * @return the query
+     */
+    private Query createContainsQuery( String strSearchField, String strNGramField, String strValue )
+    {
+        String strLowerCaseValue = strValue.toLowerCase( );
+        if ( strLowerCaseValue.length( ) < AppointmentNGramAnalyzer.NGRAM_SIZE )
+        {
+            return new WildcardQuery( new Term( strSearchField, WildcardQuery.WILDCARD_STRING + strLowerCaseValue + WildcardQuery.WILDCARD_STRING ) );
         }
 
+        PhraseQuery.Builder builder = new PhraseQuery.Builder( );
+        for ( int nPosition = 0; nPosition + AppointmentNGramAnalyzer.NGRAM_SIZE <= strLowerCaseValue.length( ); nPosition++ )
+        {
+            String strNGram = strLowerCaseValue.substring( nPosition, nPosition + AppointmentNGramAnalyzer.NGRAM_SIZE );
+            builder.add( new Term( strNGramField, strNGram ), nPosition );
+        }
         return builder.build( );
     }
 
+    /**
+     * Build the query of the date range of a filter
+     * 
+     * @param filter
+     *            the filter
+     * @return the query, or null if the range is not bounded
+     */
     private Query createDateRangeQuery( MultiviewFilter filter )
     {
-        Query query = null;
+        long [ ] dateRange = getDateRange( filter );
+        if ( dateRange == null )
+        {
+            return null;
+        }
+
+        // The points are used when the range leads the query, the doc values when a more selective clause leads
+        return new IndexOrDocValuesQuery( LongPoint.newRangeQuery( AppointmentSearchItem.FIELD_START_DATE, dateRange [0], dateRange [1] ),
+                NumericDocValuesField.newSlowRangeQuery( AppointmentSearchItem.FIELD_START_DATE, dateRange [0], dateRange [1] ) );
+    }
+
+    /**
+     * Get the range of the start dates of a filter
+     * 
+     * @param filter
+     *            the filter
+     * @return the lower and upper bounds, inclusive, in epoch milliseconds, or null if the range is not bounded
+     */
+    private static long [ ] getDateRange( MultiviewFilter filter )
+    {
         Timestamp startingTimestamp = null;
         if ( filter.getStartingDateOfSearch( ) != null )
         {
@@ -196,29 +426,65 @@ public class AppointmentSearchEngine implements IAppointmentSearchEngine
                 endingTimestamp = Timestamp.valueOf( startingDate.atTime( LocalTime.MAX ) );
             }
         }
-        if ( startingTimestamp != null && endingTimestamp != null )
+        if ( startingTimestamp == null && endingTimestamp == null )
+        {
+            return null;
+        }
+
+        long lLowerValue = ( startingTimestamp != null ) ? startingTimestamp.getTime( ) : Long.MIN_VALUE;
+        long lUpperValue = ( endingTimestamp != null ) ? endingTimestamp.getTime( ) : Long.MAX_VALUE;
+        return new long [ ] {
+                lLowerValue, lUpperValue
+        };
+    }
+
+    /**
+     * Acquire a searcher on the partitions of the index overlapping the date range of a filter
+     * 
+     * @param filter
+     *            the filter
+     * @return the searcher
+     * @throws IOException
+     *             - if the index cannot be opened
+     */
+    private IndexSearcher acquireSearcher( MultiviewFilter filter ) throws IOException
+    {
+        long [ ] dateRange = ( filter != null ) ? getDateRange( filter ) : null;
+        if ( dateRange == null )
         {
-            query = LongPoint.newRangeQuery( AppointmentSearchItem.FIELD_START_DATE, startingTimestamp.getTime( ), endingTimestamp.getTime( ) );
+            return _indexFactory.acquireSearcher( );
         }
-        else
-            if ( startingTimestamp != null )
+        return _indexFactory.acquireSearcher( dateRange [0], dateRange [1] );
+    }
+
+    /**
+     * Get the key of the readers of a searcher : the keys of its segments, which change with their deletions, as a composite reader on the partitions
+     * is created for each search
+     * 
+     * @param searcher
+     *            the searcher
+     * @return the key, or null if a segment cannot be cached
+     */
+    private static Object getReaderKey( IndexSearcher searcher )
+    {
+        List<LeafReaderContext> listLeaves = searcher.getIndexReader( ).leaves( );
+        List<Object> listKey = new ArrayList<>( listLeaves.size( ) );
+        for ( LeafReaderContext leaf : listLeaves )
+        {
+            IndexReader.CacheHelper cacheHelper = leaf.reader( ).getReaderCacheHelper( );
+            if ( cacheHelper == null )
             {
-                query = LongPoint.newRangeQuery( AppointmentSearchItem.FIELD_START_DATE, startingTimestamp.getTime( ), Long.MAX_VALUE );
+                return null;
             }
-            else
-                if ( endingTimestamp != null )
-                {
-                    query = LongPoint.newRangeQuery( AppointmentSearchItem.FIELD_START_DATE, Long.MIN_VALUE, endingTimestamp.getTime( ) );
-                }
-                else
-                {
-                    query = LongPoint.newRangeQuery( AppointmentSearchItem.FIELD_START_DATE, Long.MIN_VALUE, Long.MAX_VALUE );
-                }
-        return query;
+            listKey.add( cacheHelper.getKey( ) );
+        }
+        return listKey;
     }
 
     /**
-     * Build the Lucene Sort obj
+     * Build the Lucene Sort obj. The appointment id is always added as last sort field, so that the order is total and a page can be searched after the
+     * last hit of the previous one. The numeric fields are sorted as plain single valued fields : the sort by descending start date is then the index
+     * sort, and the collection of each segment stops as soon as the page is full
      * 
      * @param sortConfig
      *            The sort config
@@ -226,6 +492,7 @@ public class AppointmentSearchEngine implements IAppointmentSearchEngine
      */
     private Sort buildLuceneSort( AppointmentSortConfig sortConfig )
     {
+        SortField sortFieldId = new SortField( AppointmentSearchItem.FIELD_ID_APPOINTMENT, SortField.Type.INT );
         if ( sortConfig != null )
         {
             String strAttributeName = sortConfig.getSortAttributeName( );
@@ -233,17 +500,17 @@ public class AppointmentSearchEngine implements IAppointmentSearchEngine
             {
                 if ( strAttributeName.endsWith( AppointmentSearchItem.FIELD_DATE_SUFFIX ) )
                 {
-                    return new Sort( new SortedNumericSortField( sortConfig.getSortAttributeName( ), SortField.Type.LONG, sortConfig.isDescSort( ) ) );
+                    return new Sort( new SortField( sortConfig.getSortAttributeName( ), SortField.Type.LONG, sortConfig.isDescSort( ) ), sortFieldId );
                 }
                 if ( strAttributeName.endsWith( AppointmentSearchItem.FIELD_INT_SUFFIX ) )
                 {
-                    return new Sort( new SortedNumericSortField( sortConfig.getSortAttributeName( ), SortField.Type.LONG, sortConfig.isDescSort( ) ) );
+                    return new Sort( new SortField( sortConfig.getSortAttributeName( ), SortField.Type.LONG, sortConfig.isDescSort( ) ), sortFieldId );
 
                 }
-                return new Sort( new SortField( sortConfig.getSortAttributeName( ), SortField.Type.STRING, sortConfig.isDescSort( ) ) );
+                return new Sort( new SortField( sortConfig.getSortAttributeName( ), SortField.Type.STRING, sortConfig.isDescSort( ) ), sortFieldId );
             }
         }
 
-        return null;
+        return new Sort( SortField.FIELD_SCORE, sortFieldId );
     }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreDoc;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+
+/**
+ * Loader of the search items of a page from the doc values of the index. The doc values iterators only move forward, so the hits are read in doc id
+ * order, segment by segment, and the items are put back in the order of the hits.
+ */
+final class AppointmentSearchItemLoader
+{
+    private static final int INTEGER_MINUS_ONE = -1;
+
+    /**
+     * Private constructor
+     */
+    private AppointmentSearchItemLoader( )
+    {
+    }
+
+    /**
+     * Load the search items of some hits
+     * 
+     * @param reader
+     *            the reader the hits come from
+     * @param hits
+     *            the hits
+     * @param nFrom
+     *            the index of the first hit to load
+     * @param nTo
+     *            the index after the last hit to load
+     * @param result
+     *            the list the items are added to, in the order of the hits
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    static void load( IndexReader reader, ScoreDoc [ ] hits, int nFrom, int nTo, List<AppointmentSearchItem> result ) throws IOException
+    {
+        if ( nTo <= nFrom )
+        {
+            return;
+        }
+
+        Integer [ ] tabOrder = new Integer [ nTo - nFrom];
+        for ( int i = 0; i < tabOrder.length; i++ )
+        {
+            tabOrder [i] = nFrom + i;
+        }
+        Arrays.sort( tabOrder, ( nHit1, nHit2 ) -> Integer.compare( hits [nHit1].doc, hits [nHit2].doc ) );
+
+        List<LeafReaderContext> listLeaves = reader.leaves( );
+        AppointmentSearchItem [ ] tabItem = new AppointmentSearchItem [ tabOrder.length];
+        LeafValues leafValues = null;
+        for ( int nHit : tabOrder )
+        {
+            int doc = hits [nHit].doc;
+            if ( leafValues == null || doc >= leafValues._nDocEnd )
+            {
+                leafValues = new LeafValues( listLeaves.get( ReaderUtil.subIndex( doc, listLeaves ) ) );
+            }
+            tabItem [nHit - nFrom] = leafValues.load( doc - leafValues._nDocBase );
+        }
+        result.addAll( Arrays.asList( tabItem ) );
+    }
+
+    /**
+     * Doc values of a segment
+     */
+    private static final class LeafValues
+    {
+        private final int _nDocBase;
+        private final int _nDocEnd;
+        private final NumericDocValues _idAppointmentValues;
+        private final NumericDocValues _idFormValues;
+        private final SortedDocValues _firstNameValues;
+        private final SortedDocValues _lastNameValues;
+        private final SortedDocValues _mailValues;
+        private final SortedDocValues _phoneNumberValues;
+        private final NumericDocValues _startDateValues;
+        private final NumericDocValues _endDateValues;
+        private final SortedDocValues _adminValues;
+        private final SortedDocValues _cancelledValues;
+        private final NumericDocValues _idStateValues;
+        private final NumericDocValues _nbSeatsValues;
+        private final NumericDocValues _dateAppointmentTakenValues;
+        private final NumericDocValues _idCategoryValues;
+
+        LeafValues( LeafReaderContext context ) throws IOException
+        {
+            LeafReader reader = context.reader( );
+            _nDocBase = context.docBase;
+            _nDocEnd = context.docBase + reader.maxDoc( );
+            _idAppointmentValues = DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_ID_APPOINTMENT );
+            _idFormValues = DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_ID_FORM );
+            _firstNameValues = DocValues.getSorted( reader, AppointmentSearchItem.FIELD_FIRST_NAME );
+            _lastNameValues = DocValues.getSorted( reader, AppointmentSearchItem.FIELD_LAST_NAME );
+            _mailValues = DocValues.getSorted( reader, AppointmentSearchItem.FIELD_MAIL );
+            _phoneNumberValues = DocValues.getSorted( reader, AppointmentSearchItem.FIELD_PHONE_NUMBER );
+            _startDateValues = DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_START_DATE );
+            _endDateValues = DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_END_DATE );
+            _adminValues = DocValues.getSorted( reader, AppointmentSearchItem.FIELD_ADMIN );
+            _cancelledValues = DocValues.getSorted( reader, AppointmentSearchItem.FIELD_CANCELLED );
+            _idStateValues = DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_ID_WORKFLOW_STATE );
+            _nbSeatsValues = DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_NB_SEATS );
+            _dateAppointmentTakenValues = DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_DATE_APPOINTMENT_TAKEN );
+            _idCategoryValues = DocValues.getNumeric( reader, AppointmentSearchItem.FIELD_ID_CATEGORY );
+        }
+
+        /**
+         * Load the search item of a document of the segment. The documents must be loaded in increasing order.
+         * 
+         * @param doc
+         *            the document id in the segment
+         * @return the search item
+         * @throws IOException
+         *             - if there is a low level IO error
+         */
+        AppointmentSearchItem load( int doc ) throws IOException
+        {
+            return new AppointmentSearchItem( (int) getLong( _idAppointmentValues, doc, INTEGER_MINUS_ONE ),
+                    (int) getLong( _idFormValues, doc, INTEGER_MINUS_ONE ), getString( _firstNameValues, doc ), getString( _lastNameValues, doc ),
+                    getString( _mailValues, doc ), getString( _phoneNumberValues, doc ), getLong( _startDateValues, doc, 0L ),
+                    getLong( _endDateValues, doc, 0L ), getString( _adminValues, doc ), Boolean.parseBoolean( getString( _cancelledValues, doc ) ),
+                    (int) getLong( _idStateValues, doc, INTEGER_MINUS_ONE ), (int) getLong( _nbSeatsValues, doc, INTEGER_MINUS_ONE ),
+                    getLong( _dateAppointmentTakenValues, doc, 0L ), (int) getLong( _idCategoryValues, doc, INTEGER_MINUS_ONE ) );
+        }
+
+        private static long getLong( NumericDocValues values, int doc, long lDefaultValue ) throws IOException
+        {
+            return values.advanceExact( doc ) ? values.longValue( ) : lDefaultValue;
+        }
+
+        private static String getString( SortedDocValues values, int doc ) throws IOException
+        {
+            return values.advanceExact( doc ) ? values.lookupOrd( values.ordValue( ) ).utf8ToString( ) : null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.search.FieldDoc;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+
+/**
+ * Bounded LRU cache of the pages of multiview searches. An entry is keyed by the canonical form of the filter, the sort and the page window, and tagged
+ * with the key of the index readers which computed it : once the searcher is refreshed, the entries of the previous readers are no longer returned.
+ */
+class AppointmentSearchResultCache
+{
+    private final int _nMaxSize;
+    private final Map<List<Object>, CachedResult> _mapCache;
+
+    /**
+     * Constructor
+     * 
+     * @param nMaxSize
+     *            the maximum number of cached pages, 0 to disable the cache
+     */
+    AppointmentSearchResultCache( int nMaxSize )
+    {
+        _nMaxSize = nMaxSize;
+        _mapCache = new LinkedHashMap<List<Object>, CachedResult>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<List<Object>, CachedResult> eldest )
+            {
+                return size( ) > _nMaxSize;
+            }
+        };
+    }
+
+    /**
+     * @return true if the cache is enabled
+     */
+    boolean isEnabled( )
+    {
+        return _nMaxSize > 0;
+    }
+
+    /**
+     * Build the key of a page. The filter is reduced to the criteria used by the query, the text criteria being lower cased and the authorized forms
+     * sorted
+     * 
+     * @param filter
+     *            the filter
+     * @param sortConfig
+     *            the sort, may be null
+     * @param nStartIndex
+     *            the index of the first result of the page
+     * @param nPageSize
+     *            the page size
+     * @param bFacets
+     *            true if the facets are counted
+     * @return the key
+     */
+    static List<Object> createKey( MultiviewFilter filter, AppointmentSortConfig sortConfig, int nStartIndex, int nPageSize, boolean bFacets )
+    {
+        return Arrays.asList( filter.getIdForm( ), ( filter.getIdFormList( ) != null ) ? new TreeSet<>( filter.getIdFormList( ) ) : null,
+                filter.getIdCategory( ), StringUtils.lowerCase( filter.getFirstName( ) ), StringUtils.lowerCase( filter.getLastName( ) ),
+                StringUtils.lowerCase( filter.getEmail( ) ), StringUtils.lowerCase( filter.getPhoneNumber( ) ), filter.getStartingDateOfSearch( ),
+                filter.getStartingTimeOfSearch( ), filter.getEndingDateOfSearch( ), filter.getEndingTimeOfSearch( ), filter.getStatus( ), sortConfig,
+                nStartIndex, nPageSize, bFacets );
+    }
+
+    /**
+     * Get a cached page
+     * 
+     * @param key
+     *            the key of the page
+     * @param readerKey
+     *            the key of the current index reader
+     * @return the cached page, or null if it is not cached or was computed by another reader
+     */
+    synchronized CachedResult get( List<Object> key, Object readerKey )
+    {
+        CachedResult cachedResult = _mapCache.get( key );
+        if ( cachedResult != null && !cachedResult._readerKey.equals( readerKey ) )
+        {
+            _mapCache.remove( key );
+            return null;
+        }
+        return cachedResult;
+    }
+
+    /**
+     * Cache a page
+     * 
+     * @param key
+     *            the key of the page
+     * @param cachedResult
+     *            the page
+     */
+    synchronized void put( List<Object> key, CachedResult cachedResult )
+    {
+        _mapCache.put( key, cachedResult );
+    }
+
+    /**
+     * A cached page : its results, the total number of results, the last hit for the search cursor and the facet counts
+     */
+    static final class CachedResult
+    {
+        private final Object _readerKey;
+        private final List<AppointmentSearchItem> _listItem;
+        private final int _nbResults;
+        private final FieldDoc _lastDoc;
+        private final Map<Integer, Integer> _mapCountByForm;
+        private final Map<Integer, Integer> _mapCountByCategory;
+        private final Map<Integer, Integer> _mapCountByState;
+        private final Map<Integer, Integer> _mapCountByStatus;
+
+        CachedResult( Object readerKey, List<AppointmentSearchItem> listItem, int nbResults, FieldDoc lastDoc, AppointmentFacetCounts facetCounts )
+        {
+            _readerKey = readerKey;
+            _listItem = Collections.unmodifiableList( new ArrayList<>( listItem ) );
+            _nbResults = nbResults;
+            _lastDoc = lastDoc;
+            _mapCountByForm = ( facetCounts != null ) ? new HashMap<>( facetCounts.getCountByForm( ) ) : null;
+            _mapCountByCategory = ( facetCounts != null ) ? new HashMap<>( facetCounts.getCountByCategory( ) ) : null;
+            _mapCountByState = ( facetCounts != null ) ? new HashMap<>( facetCounts.getCountByState( ) ) : null;
+            _mapCountByStatus = ( facetCounts != null ) ? new HashMap<>( facetCounts.getCountByStatus( ) ) : null;
+        }
+
+        /**
+         * Copy the cached page to the result of a search
+         * 
+         * @param result
+         *            the list to fill with the page results
+         * @param cursor
+         *            the cursor of the visited pages, may be null
+         * @param nPageIndex
+         *            the page index
+         * @param facetCounts
+         *            the facet counts to fill, may be null
+         * @return the total number of results
+         */
+        int copyTo( List<AppointmentSearchItem> result, AppointmentSearchCursor cursor, int nPageIndex, AppointmentFacetCounts facetCounts )
+        {
+            result.addAll( _listItem );
+            if ( cursor != null && _lastDoc != null )
+            {
+                cursor.setLastDoc( nPageIndex, _lastDoc );
+            }
+            if ( facetCounts != null && _mapCountByForm != null )
+            {
+                facetCounts.clear( );
+                facetCounts.getCountByForm( ).putAll( _mapCountByForm );
+                facetCounts.getCountByCategory( ).putAll( _mapCountByCategory );
+                facetCounts.getCountByState( ).putAll( _mapCountByState );
+                facetCounts.getCountByStatus( ).putAll( _mapCountByStatus );
+            }
+            return _nbResults;
+        }
+    }
+}
@@ -33,6 +33,8 @@
  */
 package fr.paris.lutece.plugins.appointment.modules.management.service.search;
 
+import java.util.Objects;
+
 public class AppointmentSortConfig
 {
     private final String _strSortAttributeName;
@@ -59,4 +61,25 @@ public class AppointmentSortConfig
     {
         return _bDescSort;
     }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+        if ( !( obj instanceof AppointmentSortConfig ) )
+        {
+            return false;
+        }
+        AppointmentSortConfig other = (AppointmentSortConfig) obj;
+        return _bDescSort == other._bDescSort && Objects.equals( _strSortAttributeName, other._strSortAttributeName );
+    }
+
+    @Override
+    public int hashCode( )
+    {
+        return Objects.hash( _strSortAttributeName, _bDescSort );
+    }
 }
@@ -47,4 +47,27 @@ public interface IAppointmentSearchEngine
      * @return total number of results.
      */
     int getSearchResult( List<AppointmentSearchItem> result, MultiviewFilter filter, int nStartIndex, int nPageSize, AppointmentSortConfig sortConfig );
+
+    /**
+     * Search lucene index for one page of results, collecting only the page hits when the cursor knows the last hit of the previous page.
+     * 
+     * @return total number of results.
+     */
+    int getSearchResult( List<AppointmentSearchItem> result, MultiviewFilter filter, AppointmentSearchCursor cursor, int nPageIndex, int nPageSize,
+            AppointmentSortConfig sortConfig );
+
+    /**
+     * Search lucene index for one page of results, counting the facets of the search in the same pass.
+     * 
+     * @return total number of results.
+     */
+    int getSearchResult( List<AppointmentSearchItem> result, MultiviewFilter filter, AppointmentSearchCursor cursor, int nPageIndex, int nPageSize,
+            AppointmentSortConfig sortConfig, AppointmentFacetCounts facetCounts );
+
+    /**
+     * Count the results of a search, without collecting nor loading any document.
+     * 
+     * @return total number of results.
+     */
+    int getSearchResultCount( MultiviewFilter filter );
 }
@@ -38,35 +38,33 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringUtils;
 
-import fr.paris.lutece.api.user.User;
 import fr.paris.lutece.plugins.appointment.business.category.Category;
-import fr.paris.lutece.plugins.appointment.business.category.CategoryHome;
 import fr.paris.lutece.plugins.appointment.business.form.Form;
-import fr.paris.lutece.plugins.appointment.business.form.FormHome;
 import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
 import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+import fr.paris.lutece.plugins.appointment.modules.management.service.AppointmentReferenceCacheService;
 import fr.paris.lutece.plugins.appointment.modules.management.service.AppointmentSearchService;
+import fr.paris.lutece.plugins.appointment.modules.management.service.AuthorizedFormCacheService;
+import fr.paris.lutece.plugins.appointment.modules.management.service.AuthorizedFormSet;
 import fr.paris.lutece.plugins.appointment.modules.management.service.IAppointmentSearchService;
+import fr.paris.lutece.plugins.appointment.modules.management.service.export.MultiviewExcelAppointmentGenerator;
+import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentFacetCounts;
+import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentSearchCursor;
 import fr.paris.lutece.plugins.appointment.modules.management.service.search.AppointmentSortConfig;
-import fr.paris.lutece.plugins.appointment.service.AppointmentResourceIdService;
-import fr.paris.lutece.plugins.appointment.service.AppointmentService;
 import fr.paris.lutece.plugins.appointment.service.export.AppointmentExportService;
-import fr.paris.lutece.plugins.appointment.service.export.ExcelAppointmentGenerator;
-import fr.paris.lutece.plugins.appointment.web.dto.AppointmentDTO;
 import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileGeneratorService;
+import fr.paris.lutece.plugins.workflowcore.business.state.State;
 import fr.paris.lutece.portal.service.admin.AccessDeniedException;
 import fr.paris.lutece.portal.service.i18n.I18nService;
-import fr.paris.lutece.portal.service.rbac.RBACService;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
-import fr.paris.lutece.portal.service.workgroup.AdminWorkgroupService;
 import fr.paris.lutece.portal.util.mvc.admin.MVCAdminJspBean;
 import fr.paris.lutece.portal.util.mvc.admin.annotations.Controller;
 import fr.paris.lutece.portal.util.mvc.commons.annotations.Action;
@@ -116,15 +114,19 @@ public class MultiviewAppointmentJspBean extends MVCAdminJspBean
     private static final String MARK_FILTER = "filter";
     private static final String MARK_LANGUAGE = "language";
     private static final String MARK_DEFAULT_FIELD_LIST = "defaultFieldList";
+    private static final String MARK_LIST_STATE_COUNTS = "listStateCounts";
 
     private static final String START_DATE = "start_date";
 
     // Variables
     private IAppointmentSearchService _appointmentSearchService = SpringContextService.getBean( AppointmentSearchService.BEAN_NAME );
+    private AppointmentReferenceCacheService _referenceCacheService = SpringContextService.getBean( AppointmentReferenceCacheService.BEAN_NAME );
+    private AuthorizedFormCacheService _authorizedFormCacheService = SpringContextService.getBean( AuthorizedFormCacheService.BEAN_NAME );
     private String _strCurrentPageIndex;
     private int _nItemsPerPage;
     private AppointmentSortConfig _sortConfig;
     private MultiviewFilter _filter;
+    private transient AppointmentSearchCursor _searchCursor;
 
     /**
      * Return the view with the responses of all the appointments
@@ -144,18 +146,23 @@ public class MultiviewAppointmentJspBean extends MVCAdminJspBean
             // Populate the filter
             populate( _filter, request );
             _strCurrentPageIndex = "1";
+            getSearchCursor( ).reset( );
         }
         else
             if ( request.getParameter( PARAMETER_RESET ) != null || _filter == null )
             {
                 _filter = new MultiviewFilter( );
+                getSearchCursor( ).reset( );
             }
 
-        ReferenceList formList = getListForms( getUser( ) );
-        _filter.setIdFormList( formList.stream( ).map( ReferenceItem::getCode ).map( Integer::parseInt ).collect( Collectors.toList( ) ) );
+        AuthorizedFormSet authorizedForms = _authorizedFormCacheService.getAuthorizedForms( getUser( ) );
+        ReferenceList formList = getListForms( authorizedForms );
+        _filter.setIdFormList( authorizedForms.getIdFormList( ), authorizedForms.getQuery( ) );
 
         List<AppointmentSearchItem> appointmentList = new ArrayList<>( );
-        int nbResults = _appointmentSearchService.search( appointmentList, _filter, getIndexStart( ), _nItemsPerPage, _sortConfig );
+        AppointmentFacetCounts facetCounts = new AppointmentFacetCounts( );
+        int nbResults = _appointmentSearchService.search( appointmentList, _filter, getSearchCursor( ), getCurrentPageIndex( ), _nItemsPerPage,
+                _sortConfig, facetCounts );
         LocalizedDelegatePaginator<AppointmentSearchItem> paginator = new LocalizedDelegatePaginator<>( appointmentList, _nItemsPerPage, JSP_MANAGE_APPOINTMENT,
                 PARAMETER_PAGE_INDEX, _strCurrentPageIndex, nbResults, getLocale( ) );
 
@@ -163,11 +170,12 @@ public class MultiviewAppointmentJspBean extends MVCAdminJspBean
         model.put( MARK_NB_ITEMS_PER_PAGE, String.valueOf( _nItemsPerPage ) );
         model.put( MARK_PAGINATOR, paginator );
         model.put( MARK_APPOINTMENT_LIST, paginator.getPageItems( ) );
-        model.put( MARK_LIST_STATUS, getListStatus( ) );
+        model.put( MARK_LIST_STATUS, addFacetCounts( getListStatus( ), facetCounts.getCountByStatus( ) ) );
         model.put( MARK_FILTER, _filter );
         model.put( MARK_LANGUAGE, getLocale( ) );
-        model.put( MARK_LIST_FORMS, formList );
-        model.put( MARK_LIST_CATEGORIES, getListCategories( ) );
+        model.put( MARK_LIST_FORMS, addFacetCounts( formList, facetCounts.getCountByForm( ) ) );
+        model.put( MARK_LIST_CATEGORIES, addFacetCounts( getListCategories( ), facetCounts.getCountByCategory( ) ) );
+        model.put( MARK_LIST_STATE_COUNTS, getListStateCounts( facetCounts.getCountByState( ) ) );
         model.put( MARK_DEFAULT_FIELD_LIST, AppointmentExportService.getDefaultColumnList( getLocale( ) ) );
 
         return getPage( PROPERTY_PAGE_TITLE_MULTIVIEW_APPOINTMENTS, TEMPLATE_MULTIVIEW_APPOINTMENT, model );
@@ -188,25 +196,16 @@ public class MultiviewAppointmentJspBean extends MVCAdminJspBean
     public String doExportAppointments( HttpServletRequest request ) throws AccessDeniedException
     {
         Locale locale = getLocale( );
-        List<AppointmentDTO> listAppointmentsDTO = new ArrayList<>( );
-        if ( _filter != null )
-        {
-            List<AppointmentSearchItem> appointmentList = new ArrayList<>( );
-            _appointmentSearchService.search( appointmentList, _filter, 0, 0, _sortConfig );
-
-            for ( AppointmentSearchItem item : appointmentList )
-            {
-                listAppointmentsDTO.add( AppointmentService.buildAppointmentDTOFromIdAppointment( item.getIdAppointment( ) ) );
-            }
-        }
-
         List<String> defaultColumnList = new ArrayList<>( );
         if ( ArrayUtils.isNotEmpty( request.getParameterValues( PARAMETER_SELECTED_DEFAULT_FIELD ) ) )
         {
             defaultColumnList = Arrays.asList( request.getParameterValues( PARAMETER_SELECTED_DEFAULT_FIELD ) );
         }
 
-        ExcelAppointmentGenerator generator = new ExcelAppointmentGenerator( defaultColumnList, locale, listAppointmentsDTO, new ArrayList<>( ) );
+        // The export runs asynchronously, it works on a copy of the filter which is updated in place by the next searches
+        MultiviewFilter filter = ( _filter != null ) ? SerializationUtils.clone( _filter ) : null;
+        MultiviewExcelAppointmentGenerator generator = new MultiviewExcelAppointmentGenerator( _appointmentSearchService, filter, _sortConfig,
+                defaultColumnList, locale );
 
         TemporaryFileGeneratorService.getInstance( ).generateFile( generator, getUser( ) );
         addInfo( "appointment.export.async.message", locale );
@@ -216,6 +215,8 @@ public class MultiviewAppointmentJspBean extends MVCAdminJspBean
 
     private void initiatePaginatorProperties( HttpServletRequest request )
     {
+        AppointmentSortConfig previousSortConfig = _sortConfig;
+        int nPreviousItemsPerPage = _nItemsPerPage;
         _sortConfig = null;
         _strCurrentPageIndex = AbstractPaginator.getPageIndex( request, AbstractPaginator.PARAMETER_PAGE_INDEX, _strCurrentPageIndex );
         int nDefaultItemsPerPage = AppPropertiesService.getPropertyInt( PROPERTY_DEFAULT_LIST_ITEM_PER_PAGE, 50 );
@@ -238,42 +239,47 @@ public class MultiviewAppointmentJspBean extends MVCAdminJspBean
 
         _sortConfig = new AppointmentSortConfig( sortName, bDesc );
 
+        // The hits of the visited pages are no longer valid once the sort or the page size change
+        if ( !_sortConfig.equals( previousSortConfig ) || _nItemsPerPage != nPreviousItemsPerPage )
+        {
+            getSearchCursor( ).reset( );
+        }
     }
 
     /**
-     * Return the current page index as int
+     * Get the cursor of the visited pages of the current search
      * 
-     * @return the current page index
+     * @return the search cursor
      */
-    private int getCurrentPageIndex( )
+    private AppointmentSearchCursor getSearchCursor( )
     {
-        if ( _strCurrentPageIndex != null )
+        if ( _searchCursor == null )
         {
-            return Integer.parseInt( _strCurrentPageIndex );
+            _searchCursor = new AppointmentSearchCursor( );
         }
-        return 1;
+        return _searchCursor;
     }
 
     /**
-     * Get the index start
+     * Return the current page index as int
      * 
-     * @return the started index
+     * @return the current page index
      */
-    private int getIndexStart( )
+    private int getCurrentPageIndex( )
     {
-        return ( getCurrentPageIndex( ) - 1 ) * _nItemsPerPage;
+        if ( _strCurrentPageIndex != null )
+        {
+            return Integer.parseInt( _strCurrentPageIndex );
+        }
+        return 1;
     }
 
-    private ReferenceList getListForms( User user )
+    private ReferenceList getListForms( AuthorizedFormSet authorizedForms )
     {
         ReferenceList refListForms = new ReferenceList( );
         refListForms.addItem( -1, StringUtils.EMPTY );
 
-        List<Form> formList = FormHome.findAllForms( );
-        formList = (List<Form>) AdminWorkgroupService.getAuthorizedCollection( formList, user );
-        formList = (List<Form>) RBACService.getAuthorizedCollection( formList, AppointmentResourceIdService.PERMISSION_VIEW_FORM, user );
-
-        for ( Form form : formList )
+        for ( Form form : authorizedForms.getForms( ) )
         {
             refListForms.addItem( form.getIdForm( ), form.getTitle( ) );
         }
@@ -285,14 +291,58 @@ public class MultiviewAppointmentJspBean extends MVCAdminJspBean
         ReferenceList refListForms = new ReferenceList( );
         refListForms.addItem( -1, StringUtils.EMPTY );
 
-        List<Category> categoryList = CategoryHome.findAllCategories( );
-        for ( Category category : categoryList )
+        for ( Category category : _referenceCacheService.getCategories( ).values( ) )
         {
             refListForms.addItem( category.getIdCategory( ), category.getLabel( ) );
         }
         return refListForms;
     }
 
+    /**
+     * Copy a list of the filter values, adding to each value the number of appointments found with this value
+     * 
+     * @param refList
+     *            the list of the filter values, whose first item is the empty value
+     * @param mapCount
+     *            the facet counts of the filter
+     * @return the list with the counts
+     */
+    private static ReferenceList addFacetCounts( ReferenceList refList, Map<Integer, Integer> mapCount )
+    {
+        ReferenceList refListWithCounts = new ReferenceList( );
+        for ( ReferenceItem item : refList )
+        {
+            String strName = item.getName( );
+            if ( StringUtils.isNotEmpty( strName ) )
+            {
+                strName = strName + " (" + mapCount.getOrDefault( Integer.parseInt( item.getCode( ) ), 0 ) + ")";
+            }
+            refListWithCounts.addItem( item.getCode( ), strName );
+        }
+        return refListWithCounts;
+    }
+
+    /**
+     * List of the workflow states of the appointments found, with their number of appointments
+     * 
+     * @param mapCountByState
+     *            the facet counts of the workflow states
+     * @return the list of the states
+     */
+    private ReferenceList getListStateCounts( Map<Integer, Integer> mapCountByState )
+    {
+        ReferenceList refListStates = new ReferenceList( );
+        for ( Map.Entry<Integer, Integer> entry : mapCountByState.entrySet( ) )
+        {
+            State state = _referenceCacheService.getState( entry.getKey( ) );
+            if ( state != null )
+            {
+                refListStates.addItem( entry.getKey( ), state.getName( ) + " (" + entry.getValue( ) + ")" );
+            }
+        }
+        return refListStates;
+    }
+
     /**
      * List of all the available status of an appointment
      * 
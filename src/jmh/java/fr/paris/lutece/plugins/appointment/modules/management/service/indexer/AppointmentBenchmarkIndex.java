@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentDTO;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Synthetic appointment index of the benchmarks. The index is built with the documents of the indexer, once per number of documents and partition
+ * period, and kept in the benchmark index directory (system property appointment.benchmark.indexDirectory, target/jmh-index by default) for the next
+ * runs.
+ */
+public final class AppointmentBenchmarkIndex
+{
+    private static final String PROPERTY_INDEX_DIRECTORY = "appointment.benchmark.indexDirectory";
+    private static final String DEFAULT_INDEX_DIRECTORY = "target/jmh-index";
+    private static final String PATH_CONF = "/WEB-INF/conf/";
+    private static final String FILE_CONFIG = "config.properties";
+    private static final String FILE_COMPLETE = "benchmark_complete";
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private AppointmentBenchmarkIndex( )
+    {
+    }
+
+    /**
+     * Open the synthetic index of a size and a partition period, building it if it is not built yet. The Lutece properties are initialized first, with
+     * the index path and the given properties.
+     * 
+     * @param nDocuments
+     *            the number of documents
+     * @param strPeriod
+     *            the partition period : none, month, quarter or year
+     * @param properties
+     *            the other properties of the benchmark
+     * @return the factory of the index
+     * @throws IOException
+     *             - if the index cannot be built
+     */
+    public static LuceneAppointmentIndexFactory open( int nDocuments, String strPeriod, Properties properties ) throws IOException
+    {
+        Path pathIndex = getIndexPath( nDocuments + "-" + strPeriod );
+        initLutece( pathIndex, strPeriod, properties );
+
+        if ( !Files.exists( pathIndex.resolve( FILE_COMPLETE ) ) )
+        {
+            build( pathIndex, nDocuments );
+        }
+        return createFactory( );
+    }
+
+    /**
+     * Open an empty index in the benchmark index directory, deleting its previous content. The Lutece properties are initialized first, with the index
+     * path and the given properties.
+     * 
+     * @param strName
+     *            the name of the index directory
+     * @param strPeriod
+     *            the partition period : none, month, quarter or year
+     * @param properties
+     *            the other properties of the benchmark
+     * @return the factory of the index
+     * @throws IOException
+     *             - if the previous content cannot be deleted
+     */
+    public static LuceneAppointmentIndexFactory openEmpty( String strName, String strPeriod, Properties properties ) throws IOException
+    {
+        Path pathIndex = getIndexPath( strName );
+        deleteDirectory( pathIndex );
+        initLutece( pathIndex, strPeriod, properties );
+        return createFactory( );
+    }
+
+    /**
+     * Set a field injected by Spring in the application
+     * 
+     * @param target
+     *            the bean
+     * @param strFieldName
+     *            the field name
+     * @param value
+     *            the value of the field
+     */
+    public static void inject( Object target, String strFieldName, Object value )
+    {
+        try
+        {
+            Field field = target.getClass( ).getDeclaredField( strFieldName );
+            field.setAccessible( true );
+            field.set( target, value );
+        }
+        catch( ReflectiveOperationException e )
+        {
+            throw new IllegalStateException( "Unable to inject " + strFieldName, e );
+        }
+    }
+
+    /**
+     * Get the path of an index in the benchmark index directory
+     * 
+     * @param strName
+     *            the name of the index directory
+     * @return the absolute path of the index
+     */
+    private static Path getIndexPath( String strName )
+    {
+        return Paths.get( System.getProperty( PROPERTY_INDEX_DIRECTORY, DEFAULT_INDEX_DIRECTORY ), strName ).toAbsolutePath( );
+    }
+
+    /**
+     * Initialize the Lutece properties in a temporary webapp, as the application does at startup
+     * 
+     * @param pathIndex
+     *            the path of the index
+     * @param strPeriod
+     *            the partition period
+     * @param properties
+     *            the other properties
+     * @throws IOException
+     *             - if the configuration cannot be written
+     */
+    private static void initLutece( Path pathIndex, String strPeriod, Properties properties ) throws IOException
+    {
+        Properties config = new Properties( );
+        config.putAll( properties );
+        config.setProperty( "appointment-management.internalIndexer.lucene.indexInWebapp", "false" );
+        config.setProperty( "appointment-management.internalIndexer.lucene.indexPath", pathIndex.toString( ) );
+        config.setProperty( "appointment-management.index.partition.period", strPeriod );
+
+        Path pathWebapp = Files.createTempDirectory( "appointment-benchmark" );
+        Path pathConf = Files.createDirectories( pathWebapp.resolve( PATH_CONF.substring( 1 ) ) );
+        try ( Writer writer = Files.newBufferedWriter( pathConf.resolve( FILE_CONFIG ), StandardCharsets.UTF_8 ) )
+        {
+            config.store( writer, null );
+        }
+        AppPathService.init( pathWebapp.toString( ) );
+        AppPropertiesService.init( PATH_CONF );
+    }
+
+    /**
+     * Create a factory of the configured index
+     * 
+     * @return the factory
+     */
+    private static LuceneAppointmentIndexFactory createFactory( )
+    {
+        LuceneAppointmentIndexFactory factory = new LuceneAppointmentIndexFactory( );
+        inject( factory, "_analyzer", new StandardAnalyzer( ) );
+        return factory;
+    }
+
+    /**
+     * Build the synthetic index, with the documents of the indexer
+     * 
+     * @param pathIndex
+     *            the directory of the index
+     * @param nDocuments
+     *            the number of documents
+     * @throws IOException
+     *             - if the index cannot be written
+     */
+    private static void build( Path pathIndex, int nDocuments ) throws IOException
+    {
+        deleteDirectory( pathIndex );
+        LuceneAppointmentIndexFactory factory = createFactory( );
+        LuteceAppointmentSearchIndexer indexer = new LuteceAppointmentSearchIndexer( );
+        AppointmentIndex index = factory.getIndex( );
+        if ( index == null )
+        {
+            throw new IOException( "Unable to open the benchmark index " + pathIndex );
+        }
+
+        long lStart = System.currentTimeMillis( );
+        List<Document> listDocument = new ArrayList<>( BATCH_SIZE );
+        for ( int nIdAppointment = 1; nIdAppointment <= nDocuments; nIdAppointment++ )
+        {
+            AppointmentDTO appointment = SyntheticAppointments.create( nIdAppointment );
+            listDocument.add( indexer.getDocument( appointment, SyntheticAppointments.getState( nIdAppointment ),
+                    SyntheticAppointments.getIdCategory( appointment.getIdForm( ) ) ) );
+            if ( listDocument.size( ) == BATCH_SIZE || nIdAppointment == nDocuments )
+            {
+                index.addDocuments( listDocument );
+                listDocument.clear( );
+            }
+        }
+        index.commit( );
+        factory.close( );
+        Files.createFile( pathIndex.resolve( FILE_COMPLETE ) );
+        AppLogService.info( "Benchmark index of " + nDocuments + " documents built in " + ( System.currentTimeMillis( ) - lStart ) + " ms" );
+    }
+
+    /**
+     * Delete a directory and its content, if it exists
+     * 
+     * @param path
+     *            the directory
+     * @throws IOException
+     *             - if a file cannot be deleted
+     */
+    private static void deleteDirectory( Path path ) throws IOException
+    {
+        if ( !Files.exists( path ) )
+        {
+            return;
+        }
+        List<Path> listPath;
+        try ( Stream<Path> stream = Files.walk( path ) )
+        {
+            listPath = stream.sorted( Comparator.reverseOrder( ) ).collect( Collectors.toList( ) );
+        }
+        for ( Path file : listPath )
+        {
+            Files.delete( file );
+        }
+    }
+}
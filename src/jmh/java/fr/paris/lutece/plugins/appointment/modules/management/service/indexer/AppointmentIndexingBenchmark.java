@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentDTO;
+import fr.paris.lutece.plugins.workflowcore.business.state.State;
+
+/**
+ * Benchmark of the indexing of the appointments : the building of the documents alone, and the building of the documents added to the index in
+ * batches, as the rebuild of the index does. An operation is a document, so that the score is in documents per second, and the normalized
+ * allocation rate of the gc profiler (gc.alloc.rate.norm) in bytes per document.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( value = 1, jvmArgsAppend = {
+        "-Xms2g", "-Xmx2g"
+} )
+@org.openjdk.jmh.annotations.State( Scope.Benchmark )
+public class AppointmentIndexingBenchmark
+{
+    private static final int BATCH_SIZE = 1000;
+    private static final int APPOINTMENT_COUNT = 100000;
+    private static final String INDEX_NAME = "indexing-";
+
+    @Param( {
+            "none", "month"
+    } )
+    public String period;
+
+    private LuceneAppointmentIndexFactory _indexFactory;
+    private LuteceAppointmentSearchIndexer _indexer;
+    private AppointmentIndex _index;
+    private AppointmentDTO [ ] _appointments;
+    private State [ ] _states;
+    private int [ ] _idCategories;
+    private int _nNext;
+
+    /**
+     * Create the synthetic appointments, so that their creation is not measured, and the factory of an empty index
+     * 
+     * @throws IOException
+     *             - if the previous index cannot be deleted
+     */
+    @Setup( Level.Trial )
+    public void setUp( ) throws IOException
+    {
+        _indexFactory = AppointmentBenchmarkIndex.openEmpty( INDEX_NAME + period, period, new Properties( ) );
+        _indexer = new LuteceAppointmentSearchIndexer( );
+
+        _appointments = new AppointmentDTO [ APPOINTMENT_COUNT];
+        _states = new State [ APPOINTMENT_COUNT];
+        _idCategories = new int [ APPOINTMENT_COUNT];
+        for ( int i = 0; i < APPOINTMENT_COUNT; i++ )
+        {
+            _appointments [i] = SyntheticAppointments.create( i + 1 );
+            _states [i] = SyntheticAppointments.getState( i + 1 );
+            _idCategories [i] = SyntheticAppointments.getIdCategory( _appointments [i].getIdForm( ) );
+        }
+    }
+
+    /**
+     * Open a new empty index for the iteration, as the rebuild of the index does
+     * 
+     * @throws IOException
+     *             - if the index cannot be opened
+     */
+    @Setup( Level.Iteration )
+    public void openIndex( ) throws IOException
+    {
+        _index = _indexFactory.getRebuildIndex( );
+    }
+
+    /**
+     * Delete the index of the iteration
+     */
+    @TearDown( Level.Iteration )
+    public void deleteIndex( )
+    {
+        _indexFactory.abortRebuild( );
+        _index = null;
+    }
+
+    /**
+     * Close the factory
+     */
+    @TearDown( Level.Trial )
+    public void tearDown( )
+    {
+        _indexFactory.close( );
+    }
+
+    /**
+     * Build a batch of documents
+     * 
+     * @param blackhole
+     *            the blackhole
+     */
+    @Benchmark
+    @OperationsPerInvocation( BATCH_SIZE )
+    public void getDocument( Blackhole blackhole )
+    {
+        for ( int i = 0; i < BATCH_SIZE; i++ )
+        {
+            blackhole.consume( nextDocument( ) );
+        }
+    }
+
+    /**
+     * Build a batch of documents and add it to the index
+     * 
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    @Benchmark
+    @OperationsPerInvocation( BATCH_SIZE )
+    public void addDocuments( ) throws IOException
+    {
+        List<Document> listDocument = new ArrayList<>( BATCH_SIZE );
+        for ( int i = 0; i < BATCH_SIZE; i++ )
+        {
+            listDocument.add( nextDocument( ) );
+        }
+        _index.addDocuments( listDocument );
+    }
+
+    /**
+     * Build the document of the next synthetic appointment
+     * 
+     * @return the document
+     */
+    private Document nextDocument( )
+    {
+        int nIndex = _nNext;
+        _nNext = ( nIndex + 1 ) % APPOINTMENT_COUNT;
+        return _indexer.getDocument( _appointments [nIndex], _states [nIndex], _idCategories [nIndex] );
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.SplittableRandom;
+
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentDTO;
+import fr.paris.lutece.plugins.workflowcore.business.state.State;
+
+/**
+ * Generator of synthetic appointments for the benchmarks. The appointment of an id is always the same, so that the indexes of the benchmarks can be
+ * compared between runs. A few names and forms take most of the appointments, and the appointments start on the working days of the two years before
+ * and the year after a reference date, in quarter of an hour slots.
+ */
+public final class SyntheticAppointments
+{
+    /**
+     * Reference date of the appointments : the searches of the benchmarks on the next or past appointments are relative to it
+     */
+    public static final LocalDate REFERENCE_DATE = LocalDate.of( 2025, 1, 6 );
+
+    /**
+     * Number of forms
+     */
+    public static final int FORM_COUNT = 50;
+
+    /**
+     * Number of categories of the forms
+     */
+    public static final int CATEGORY_COUNT = 5;
+
+    private static final int STATE_COUNT = 5;
+    private static final int DAYS_BEFORE = 730;
+    private static final int DAYS_AFTER = 365;
+    private static final int SLOTS_PER_DAY = 40;
+    private static final int SLOT_MINUTES = 15;
+    private static final LocalTime FIRST_SLOT = LocalTime.of( 8, 0 );
+    private static final String ADMIN_USER = "admin";
+
+    private static final String [ ] FIRST_NAMES = {
+            "Marie", "Jean", "Nathalie", "Pierre", "Isabelle", "Michel", "Sylvie", "Philippe", "Catherine", "Alain", "Françoise", "Nicolas", "Sophie",
+            "Christophe", "Sandrine", "Patrick", "Valérie", "Stéphane", "Christine", "David", "Céline", "Julien", "Hélène", "Thomas", "Aurélie", "Laurent",
+            "Émilie", "Frédéric", "Camille", "Jérôme", "Léa", "Lucas", "Chloé", "Hugo", "Manon", "Louis", "Inès", "Gabriel", "Jade", "Mohamed"
+    };
+
+    private static final String [ ] LAST_NAMES = {
+            "Martin", "Bernard", "Thomas", "Petit", "Robert", "Richard", "Durand", "Dubois", "Moreau", "Laurent", "Simon", "Michel", "Lefebvre", "Leroy",
+            "Roux", "David", "Bertrand", "Morel", "Fournier", "Girard", "Bonnet", "Dupont", "Lambert", "Fontaine", "Rousseau", "Vincent", "Muller",
+            "Lefèvre", "Faure", "André", "Mercier", "Blanc", "Guérin", "Boyer", "Garnier", "Chevalier", "François", "Legrand", "Gauthier", "Garcia",
+            "Perrin", "Robin", "Clément", "Morin", "Nicolas", "Henry", "Roussel", "Mathieu", "Gautier", "Masson", "Marchand", "Duval", "Denis", "Dumont",
+            "Marie", "Lemaire", "Noël", "Meyer", "Dufour", "Meunier", "Martinez", "Blanchard"
+    };
+
+    private static final String [ ] MAIL_DOMAINS = {
+            "gmail.com", "orange.fr", "free.fr", "hotmail.fr", "yahoo.fr", "sfr.fr", "laposte.net", "paris.fr"
+    };
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private SyntheticAppointments( )
+    {
+    }
+
+    /**
+     * Create the appointment of an id
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @return the appointment
+     */
+    public static AppointmentDTO create( int nIdAppointment )
+    {
+        SplittableRandom random = new SplittableRandom( nIdAppointment );
+        AppointmentDTO appointment = new AppointmentDTO( );
+        appointment.setIdAppointment( nIdAppointment );
+        appointment.setIdForm( 1 + skewed( random, FORM_COUNT ) );
+
+        String strFirstName = FIRST_NAMES [skewed( random, FIRST_NAMES.length )];
+        String strLastName = LAST_NAMES [skewed( random, LAST_NAMES.length )];
+        appointment.setFirstName( strFirstName );
+        appointment.setLastName( strLastName );
+        appointment.setEmail( strFirstName.toLowerCase( ) + '.' + strLastName.toLowerCase( ) + random.nextInt( 100 ) + '@'
+                + MAIL_DOMAINS [skewed( random, MAIL_DOMAINS.length )] );
+        if ( random.nextInt( 10 ) > 0 )
+        {
+            appointment.setPhoneNumber( "0" + ( 6 + random.nextInt( 2 ) ) + String.format( "%08d", random.nextInt( 100000000 ) ) );
+        }
+
+        LocalDate date = REFERENCE_DATE.plusDays( random.nextInt( -DAYS_BEFORE, DAYS_AFTER ) );
+        if ( date.getDayOfWeek( ) == DayOfWeek.SATURDAY || date.getDayOfWeek( ) == DayOfWeek.SUNDAY )
+        {
+            date = date.plusDays( 2 );
+        }
+        LocalDateTime startingDateTime = date.atTime( FIRST_SLOT ).plusMinutes( (long) SLOT_MINUTES * random.nextInt( SLOTS_PER_DAY ) );
+        appointment.setStartingDateTime( startingDateTime );
+        appointment.setEndingDateTime( startingDateTime.plusMinutes( (long) SLOT_MINUTES * ( 1 + random.nextInt( 2 ) ) ) );
+        appointment.setDateAppointmentTaken( startingDateTime.minusDays( random.nextInt( 60 ) ).minusMinutes( random.nextInt( 1440 ) ) );
+
+        appointment.setAdminUser( random.nextInt( 10 ) < 3 ? ADMIN_USER : "" );
+        appointment.setIsCancelled( random.nextInt( 100 ) < 8 );
+        appointment.setNbBookedSeats( random.nextInt( 10 ) > 0 ? 1 : 2 + random.nextInt( 3 ) );
+        return appointment;
+    }
+
+    /**
+     * Get the workflow state of an appointment
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @return the workflow state
+     */
+    public static State getState( int nIdAppointment )
+    {
+        State state = new State( );
+        state.setId( 1 + nIdAppointment % STATE_COUNT );
+        return state;
+    }
+
+    /**
+     * Get the category of a form
+     * 
+     * @param nIdForm
+     *            the form id
+     * @return the category id
+     */
+    public static int getIdCategory( int nIdForm )
+    {
+        return 1 + nIdForm % CATEGORY_COUNT;
+    }
+
+    /**
+     * Pick an index favouring the first ones, as a few names or forms take most of the appointments
+     * 
+     * @param random
+     *            the random generator
+     * @param nBound
+     *            the number of indexes
+     * @return the index, between 0 and nBound excluded
+     */
+    private static int skewed( SplittableRandom random, int nBound )
+    {
+        double dValue = random.nextDouble( );
+        return (int) ( nBound * dValue * dValue );
+    }
+}
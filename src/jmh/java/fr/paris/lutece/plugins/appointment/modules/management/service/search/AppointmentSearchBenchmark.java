@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.search;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+import fr.paris.lutece.plugins.appointment.modules.management.service.indexer.AppointmentBenchmarkIndex;
+import fr.paris.lutece.plugins.appointment.modules.management.service.indexer.LuceneAppointmentIndexFactory;
+import fr.paris.lutece.plugins.appointment.modules.management.service.indexer.SyntheticAppointments;
+
+/**
+ * Benchmark of the searches of the multiview on a synthetic index, for typical filters, sorts and pages. The result cache is disabled, so that each
+ * operation searches the index. Run with the gc profiler (the default arguments of the jmh profile) to get the allocation per operation.
+ * <p>
+ * The default parameters only cover a small index, the first page and a few scenarios, so that a run of the jmh profile takes minutes. The full matrix
+ * builds indexes of up to 5 million documents and runs for hours :
+ * </p>
+ * 
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="AppointmentSearchBenchmark -prof gc -p documents=100000,1000000,5000000
+ *     -p scenario=DEFAULT,FORM,CATEGORY,CANCELLED,LAST_NAME,FIRST_NAME_SHORT,EMAIL,PHONE_NUMBER,NEXT_MONTH,LAST_NAME_NEXT_MONTH
+ *     -p sort=start_date:desc,last_name:asc -p pageIndex=1,20"
+ * </pre>
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = {
+        "-Xms2g", "-Xmx2g"
+} )
+@State( Scope.Benchmark )
+public class AppointmentSearchBenchmark
+{
+    /**
+     * The filters of the benchmark
+     */
+    public enum Scenario
+    {
+        DEFAULT,
+        FORM,
+        CATEGORY,
+        CANCELLED,
+        LAST_NAME,
+        FIRST_NAME_SHORT,
+        EMAIL,
+        PHONE_NUMBER,
+        NEXT_MONTH,
+        LAST_NAME_NEXT_MONTH
+    }
+
+    private static final int PAGE_SIZE = 50;
+    private static final int TOTAL_HITS_THRESHOLD = 1000;
+    private static final char SORT_SEPARATOR = ':';
+    private static final String SORT_DESC = "desc";
+
+    @Param( {
+            "100000"
+    } )
+    public int documents;
+
+    @Param( {
+            "none", "month"
+    } )
+    public String period;
+
+    @Param( {
+            "DEFAULT", "FORM", "LAST_NAME", "NEXT_MONTH"
+    } )
+    public Scenario scenario;
+
+    @Param( {
+            "start_date:desc"
+    } )
+    public String sort;
+
+    @Param( {
+            "1"
+    } )
+    public int pageIndex;
+
+    private LuceneAppointmentIndexFactory _indexFactory;
+    private AppointmentSearchEngine _engine;
+    private MultiviewFilter _filter;
+    private AppointmentSortConfig _sortConfig;
+    private Sort _luceneSort;
+
+    /**
+     * Open the synthetic index, building it on the first run, and the search engine
+     * 
+     * @throws IOException
+     *             - if the index cannot be built
+     */
+    @Setup( Level.Trial )
+    public void setUp( ) throws IOException
+    {
+        Properties properties = new Properties( );
+        properties.setProperty( "appointment-management.search.cache.size", "0" );
+        properties.setProperty( "appointment-management.search.totalHitsThreshold", String.valueOf( TOTAL_HITS_THRESHOLD ) );
+        _indexFactory = AppointmentBenchmarkIndex.open( documents, period, properties );
+
+        _engine = new AppointmentSearchEngine( );
+        AppointmentBenchmarkIndex.inject( _engine, "_indexFactory", _indexFactory );
+        _filter = createFilter( scenario );
+
+        String strSortAttributeName = StringUtils.substringBefore( sort, String.valueOf( SORT_SEPARATOR ) );
+        boolean bDescSort = SORT_DESC.equals( StringUtils.substringAfter( sort, String.valueOf( SORT_SEPARATOR ) ) );
+        _sortConfig = new AppointmentSortConfig( strSortAttributeName, bDescSort );
+        SortField.Type type = strSortAttributeName.endsWith( AppointmentSearchItem.FIELD_DATE_SUFFIX ) ? SortField.Type.LONG : SortField.Type.STRING;
+        _luceneSort = new Sort( new SortField( strSortAttributeName, type, bDescSort ),
+                new SortField( AppointmentSearchItem.FIELD_ID_APPOINTMENT, SortField.Type.INT ) );
+    }
+
+    /**
+     * Close the index
+     */
+    @TearDown( Level.Trial )
+    public void tearDown( )
+    {
+        _indexFactory.close( );
+    }
+
+    /**
+     * Search a page of the multiview
+     * 
+     * @param blackhole
+     *            the blackhole
+     * @return the number of results
+     */
+    @Benchmark
+    public int search( Blackhole blackhole )
+    {
+        List<AppointmentSearchItem> result = new ArrayList<>( PAGE_SIZE );
+        int nbResults = _engine.getSearchResult( result, _filter, null, pageIndex, PAGE_SIZE, _sortConfig );
+        blackhole.consume( result );
+        return nbResults;
+    }
+
+    /**
+     * Search a page of the multiview with the counts of its facets
+     * 
+     * @param blackhole
+     *            the blackhole
+     * @return the number of results
+     */
+    @Benchmark
+    public int searchWithFacets( Blackhole blackhole )
+    {
+        List<AppointmentSearchItem> result = new ArrayList<>( PAGE_SIZE );
+        AppointmentFacetCounts facetCounts = new AppointmentFacetCounts( );
+        int nbResults = _engine.getSearchResult( result, _filter, null, pageIndex, PAGE_SIZE, _sortConfig, facetCounts );
+        blackhole.consume( result );
+        blackhole.consume( facetCounts );
+        return nbResults;
+    }
+
+    /**
+     * Count the results of the multiview
+     * 
+     * @return the number of results
+     */
+    @Benchmark
+    public int count( )
+    {
+        return _engine.getSearchResultCount( _filter );
+    }
+
+    /**
+     * Collect the hits up to the page with the query of the search engine, on the whole index
+     * 
+     * @return the hits
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    @Benchmark
+    public TopDocs currentQuery( ) throws IOException
+    {
+        return collect( _engine.createQuery( _filter, true ) );
+    }
+
+    /**
+     * Collect the hits up to the page with the query built before the filter clauses, on the whole index
+     * 
+     * @return the hits
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    @Benchmark
+    public TopDocs legacyQuery( ) throws IOException
+    {
+        return collect( LegacyAppointmentQuery.create( _filter ) );
+    }
+
+    /**
+     * Collect the sorted hits of a query up to the end of the page
+     * 
+     * @param query
+     *            the query
+     * @return the hits
+     * @throws IOException
+     *             - if there is a low level IO error
+     */
+    private TopDocs collect( Query query ) throws IOException
+    {
+        IndexSearcher searcher = _indexFactory.acquireSearcher( );
+        try
+        {
+            TopFieldCollector collector = TopFieldCollector.create( _luceneSort, pageIndex * PAGE_SIZE, TOTAL_HITS_THRESHOLD );
+            searcher.search( query, collector );
+            return collector.topDocs( );
+        }
+        finally
+        {
+            _indexFactory.releaseSearcher( searcher );
+        }
+    }
+
+    /**
+     * Create the filter of a scenario. All the forms are authorized, with the cached query of the authorized forms, as for an administrator
+     * 
+     * @param scenario
+     *            the scenario
+     * @return the filter
+     */
+    private static MultiviewFilter createFilter( Scenario scenario )
+    {
+        MultiviewFilter filter = new MultiviewFilter( );
+        List<Integer> listIdForm = IntStream.rangeClosed( 1, SyntheticAppointments.FORM_COUNT ).boxed( ).collect( Collectors.toList( ) );
+        filter.setIdFormList( listIdForm, IntPoint.newSetQuery( AppointmentSearchItem.FIELD_ID_FORM, listIdForm ) );
+        filter.setStatus( -1 );
+
+        switch( scenario )
+        {
+            case FORM:
+                filter.setIdForm( 1 );
+                break;
+            case CATEGORY:
+                filter.setIdCategory( 2 );
+                break;
+            case CANCELLED:
+                filter.setStatus( 1 );
+                break;
+            case LAST_NAME:
+                filter.setLastName( "mart" );
+                break;
+            case FIRST_NAME_SHORT:
+                filter.setFirstName( "an" );
+                break;
+            case EMAIL:
+                filter.setEmail( "dupont" );
+                break;
+            case PHONE_NUMBER:
+                filter.setPhoneNumber( "0612" );
+                break;
+            case NEXT_MONTH:
+                setNextMonth( filter );
+                break;
+            case LAST_NAME_NEXT_MONTH:
+                filter.setLastName( "mart" );
+                setNextMonth( filter );
+                break;
+            default:
+                break;
+        }
+        return filter;
+    }
+
+    /**
+     * Filter the appointments of the month following the reference date
+     * 
+     * @param filter
+     *            the filter
+     */
+    private static void setNextMonth( MultiviewFilter filter )
+    {
+        filter.setStartingDateOfSearch( Date.valueOf( SyntheticAppointments.REFERENCE_DATE ) );
+        filter.setEndingDateOfSearch( Date.valueOf( SyntheticAppointments.REFERENCE_DATE.plusMonths( 1 ) ) );
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.search;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+import fr.paris.lutece.plugins.appointment.modules.management.service.indexer.AppointmentNGramAnalyzer;
+
+/**
+ * The multiview query as it was built before the filter clauses, kept to compare both queries in the benchmarks : the criteria are scoring MUST
+ * clauses, and a start date range query over the points is always added, even when no date bound is set. Both queries are collected without scores
+ * and their conjunctions lead with the cheapest clause, so they should only differ on the date range scenarios, where the current query checks the
+ * range on the doc values once another clause leads.
+ */
+final class LegacyAppointmentQuery
+{
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private LegacyAppointmentQuery( )
+    {
+    }
+
+    /**
+     * Build the query of a filter
+     * 
+     * @param filter
+     *            the filter
+     * @return the query
+     */
+    static Query create( MultiviewFilter filter )
+    {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder( );
+        if ( filter.getIdCategory( ) > 0 )
+        {
+            builder.add( IntPoint.newExactQuery( AppointmentSearchItem.FIELD_ID_CATEGORY, filter.getIdCategory( ) ), BooleanClause.Occur.MUST );
+        }
+        if ( filter.getIdForm( ) > 0 )
+        {
+            builder.add( IntPoint.newExactQuery( AppointmentSearchItem.FIELD_ID_FORM, filter.getIdForm( ) ), BooleanClause.Occur.MUST );
+        }
+        else
+        {
+            Query query = filter.getIdFormQuery( );
+            if ( query == null )
+            {
+                query = IntPoint.newSetQuery( AppointmentSearchItem.FIELD_ID_FORM, filter.getIdFormList( ) );
+            }
+            builder.add( query, BooleanClause.Occur.FILTER );
+        }
+        if ( StringUtils.isNotEmpty( filter.getFirstName( ) ) )
+        {
+            builder.add( createContainsQuery( AppointmentSearchItem.FIELD_FIRST_NAME_SEARCH, AppointmentSearchItem.FIELD_FIRST_NAME_NGRAM,
+                    filter.getFirstName( ) ), BooleanClause.Occur.MUST );
+        }
+        if ( StringUtils.isNotEmpty( filter.getLastName( ) ) )
+        {
+            builder.add( createContainsQuery( AppointmentSearchItem.FIELD_LAST_NAME_SEARCH, AppointmentSearchItem.FIELD_LAST_NAME_NGRAM,
+                    filter.getLastName( ) ), BooleanClause.Occur.MUST );
+        }
+        if ( StringUtils.isNotEmpty( filter.getEmail( ) ) )
+        {
+            builder.add( createContainsQuery( AppointmentSearchItem.FIELD_MAIL_SEARCH, AppointmentSearchItem.FIELD_MAIL_NGRAM, filter.getEmail( ) ),
+                    BooleanClause.Occur.MUST );
+        }
+        if ( StringUtils.isNotEmpty( filter.getPhoneNumber( ) ) )
+        {
+            builder.add( createContainsQuery( AppointmentSearchItem.FIELD_PHONE_NUMBER, AppointmentSearchItem.FIELD_PHONE_NUMBER_NGRAM,
+                    filter.getPhoneNumber( ) ), BooleanClause.Occur.MUST );
+        }
+        builder.add( createDateRangeQuery( filter ), BooleanClause.Occur.MUST );
+        if ( filter.getStatus( ) != -1 )
+        {
+            builder.add( new TermQuery( new Term( AppointmentSearchItem.FIELD_CANCELLED, String.valueOf( filter.getStatus( ) == 1 ) ) ),
+                    BooleanClause.Occur.MUST );
+        }
+        return builder.build( );
+    }
+
+    /**
+     * Build a query matching the documents whose field contains a value
+     * 
+     * @param strSearchField
+     *            the lower cased search field
+     * @param strNGramField
+     *            the n-gram companion field
+     * @param strValue
+     *            the searched value
+     * @return the query
+     */
+    private static Query createContainsQuery( String strSearchField, String strNGramField, String strValue )
+    {
+        String strLowerCaseValue = strValue.toLowerCase( );
+        if ( strLowerCaseValue.length( ) < AppointmentNGramAnalyzer.NGRAM_SIZE )
+        {
+            return new WildcardQuery( new Term( strSearchField, WildcardQuery.WILDCARD_STRING + strLowerCaseValue + WildcardQuery.WILDCARD_STRING ) );
+        }
+
+        PhraseQuery.Builder builder = new PhraseQuery.Builder( );
+        for ( int nPosition = 0; nPosition + AppointmentNGramAnalyzer.NGRAM_SIZE <= strLowerCaseValue.length( ); nPosition++ )
+        {
+            builder.add( new Term( strNGramField, strLowerCaseValue.substring( nPosition, nPosition + AppointmentNGramAnalyzer.NGRAM_SIZE ) ), nPosition );
+        }
+        return builder.build( );
+    }
+
+    /**
+     * Build the start date range query of a filter, unbounded when the filter has no date
+     * 
+     * @param filter
+     *            the filter
+     * @return the query
+     */
+    private static Query createDateRangeQuery( MultiviewFilter filter )
+    {
+        long lLowerValue = Long.MIN_VALUE;
+        if ( filter.getStartingDateOfSearch( ) != null )
+        {
+            LocalDate startingDate = filter.getStartingDateOfSearch( ).toLocalDate( );
+            LocalTime startingTime = StringUtils.isNotEmpty( filter.getStartingTimeOfSearch( ) ) ? LocalTime.parse( filter.getStartingTimeOfSearch( ) )
+                    : LocalTime.MIDNIGHT;
+            lLowerValue = Timestamp.valueOf( startingDate.atTime( startingTime ) ).getTime( );
+        }
+        long lUpperValue = Long.MAX_VALUE;
+        if ( filter.getEndingDateOfSearch( ) != null )
+        {
+            LocalDate endingDate = filter.getEndingDateOfSearch( ).toLocalDate( );
+            LocalTime endingTime = StringUtils.isNotEmpty( filter.getEndingTimeOfSearch( ) ) ? LocalTime.parse( filter.getEndingTimeOfSearch( ) )
+                    : LocalTime.MAX;
+            lUpperValue = Timestamp.valueOf( endingDate.atTime( endingTime ) ).getTime( );
+        }
+        return LongPoint.newRangeQuery( AppointmentSearchItem.FIELD_START_DATE, lLowerValue, lUpperValue );
+    }
+}
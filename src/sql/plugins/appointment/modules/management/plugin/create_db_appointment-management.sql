@@ -0,0 +1,27 @@
+-- liquibase formatted sql
+-- changeset appointment-management:create_db_appointment-management.sql
+-- preconditions onFail:MARK_RAN onError:WARN
+
+--
+-- Structure for table appointment_management_index_change
+--
+DROP TABLE IF EXISTS appointment_management_index_change;
+CREATE TABLE appointment_management_index_change (
+id_change int AUTO_INCREMENT,
+id_appointment int NOT NULL,
+id_task int NOT NULL,
+node_name varchar(255) NOT NULL,
+date_change timestamp NOT NULL,
+PRIMARY KEY (id_change)
+);
+
+--
+-- Structure for table appointment_management_index_cursor
+--
+DROP TABLE IF EXISTS appointment_management_index_cursor;
+CREATE TABLE appointment_management_index_cursor (
+node_name varchar(255) NOT NULL,
+id_last_change int default 0 NOT NULL,
+date_update timestamp NOT NULL,
+PRIMARY KEY (node_name)
+);
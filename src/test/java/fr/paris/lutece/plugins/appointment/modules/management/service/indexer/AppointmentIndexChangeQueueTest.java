@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.paris.lutece.portal.business.indexeraction.IndexerAction;
+
+/**
+ * Tests of the coalescing of the pending changes of the appointment index and of the replay of their journal
+ */
+public class AppointmentIndexChangeQueueTest
+{
+    private static final int ID_APPOINTMENT = 42;
+
+    /**
+     * A creation followed by modifications stays a creation
+     */
+    @Test
+    public void testCoalesceCreateThenModify( )
+    {
+        Map<Integer, Integer> mapTask = coalesce( IndexerAction.TASK_CREATE, IndexerAction.TASK_MODIFY, IndexerAction.TASK_MODIFY );
+        assertEquals( Integer.valueOf( IndexerAction.TASK_CREATE ), mapTask.get( ID_APPOINTMENT ) );
+    }
+
+    /**
+     * An appointment created then removed before being indexed gives nothing
+     */
+    @Test
+    public void testCoalesceCreateThenDelete( )
+    {
+        Map<Integer, Integer> mapTask = coalesce( IndexerAction.TASK_CREATE, IndexerAction.TASK_MODIFY, IndexerAction.TASK_DELETE );
+        assertTrue( mapTask.isEmpty( ) );
+    }
+
+    /**
+     * An appointment modified then removed is removed from the index
+     */
+    @Test
+    public void testCoalesceModifyThenDelete( )
+    {
+        Map<Integer, Integer> mapTask = coalesce( IndexerAction.TASK_MODIFY, IndexerAction.TASK_DELETE );
+        assertEquals( Integer.valueOf( IndexerAction.TASK_DELETE ), mapTask.get( ID_APPOINTMENT ) );
+    }
+
+    /**
+     * An appointment removed then indexed again is upserted, as its removal may not be indexed yet
+     */
+    @Test
+    public void testCoalesceDeleteThenCreate( )
+    {
+        Map<Integer, Integer> mapTask = coalesce( IndexerAction.TASK_DELETE, IndexerAction.TASK_CREATE );
+        assertEquals( Integer.valueOf( IndexerAction.TASK_MODIFY ), mapTask.get( ID_APPOINTMENT ) );
+    }
+
+    /**
+     * The changes of each appointment are coalesced apart, in the order of their first change
+     */
+    @Test
+    public void testCoalesceByAppointment( )
+    {
+        Map<Integer, Integer> mapTask = new LinkedHashMap<>( );
+        AppointmentIndexChangeQueue.coalesce( mapTask, 2, IndexerAction.TASK_MODIFY );
+        AppointmentIndexChangeQueue.coalesce( mapTask, 1, IndexerAction.TASK_CREATE );
+        AppointmentIndexChangeQueue.coalesce( mapTask, 2, IndexerAction.TASK_DELETE );
+
+        assertEquals( 2, mapTask.size( ) );
+        assertEquals( Integer.valueOf( 2 ), mapTask.keySet( ).iterator( ).next( ) );
+        assertEquals( Integer.valueOf( IndexerAction.TASK_DELETE ), mapTask.get( 2 ) );
+        assertEquals( Integer.valueOf( IndexerAction.TASK_CREATE ), mapTask.get( 1 ) );
+    }
+
+    /**
+     * The replayed creations may be indexed already : they are replayed as modifications, so that a removal following them still removes the
+     * appointment from the index. A line truncated by a crash is skipped.
+     * 
+     * @throws IOException
+     *             - if the journal cannot be written
+     */
+    @Test
+    public void testReadJournal( ) throws IOException
+    {
+        Path pathJournal = Files.createTempFile( "appointment_index_journal", null );
+        try
+        {
+            String strJournal = AppointmentIndexChangeQueue.formatLine( 1, IndexerAction.TASK_CREATE )
+                    + AppointmentIndexChangeQueue.formatLine( 2, IndexerAction.TASK_CREATE )
+                    + AppointmentIndexChangeQueue.formatLine( 2, IndexerAction.TASK_DELETE )
+                    + AppointmentIndexChangeQueue.formatLine( 3, IndexerAction.TASK_DELETE ) + IndexerAction.TASK_MODIFY;
+            Files.write( pathJournal, strJournal.getBytes( StandardCharsets.UTF_8 ) );
+
+            Map<Integer, Integer> mapTask = new LinkedHashMap<>( );
+            AppointmentIndexChangeQueue.readJournal( pathJournal, mapTask );
+
+            assertEquals( 3, mapTask.size( ) );
+            assertEquals( Integer.valueOf( IndexerAction.TASK_MODIFY ), mapTask.get( 1 ) );
+            assertEquals( Integer.valueOf( IndexerAction.TASK_DELETE ), mapTask.get( 2 ) );
+            assertEquals( Integer.valueOf( IndexerAction.TASK_DELETE ), mapTask.get( 3 ) );
+        }
+        finally
+        {
+            Files.delete( pathJournal );
+        }
+    }
+
+    /**
+     * A missing journal gives no change
+     * 
+     * @throws IOException
+     *             - if the journal cannot be read
+     */
+    @Test
+    public void testReadMissingJournal( ) throws IOException
+    {
+        Path pathJournal = Files.createTempFile( "appointment_index_journal", null );
+        Files.delete( pathJournal );
+
+        Map<Integer, Integer> mapTask = new LinkedHashMap<>( );
+        AppointmentIndexChangeQueue.readJournal( pathJournal, mapTask );
+
+        assertNull( mapTask.get( ID_APPOINTMENT ) );
+        assertTrue( mapTask.isEmpty( ) );
+    }
+
+    /**
+     * Coalesce successive changes of an appointment
+     * 
+     * @param tabIdTask
+     *            the tasks of the changes
+     * @return the pending tasks
+     */
+    private static Map<Integer, Integer> coalesce( int... tabIdTask )
+    {
+        Map<Integer, Integer> mapTask = new LinkedHashMap<>( );
+        for ( int nIdTask : tabIdTask )
+        {
+            AppointmentIndexChangeQueue.coalesce( mapTask, ID_APPOINTMENT, nIdTask );
+        }
+        return mapTask;
+    }
+}
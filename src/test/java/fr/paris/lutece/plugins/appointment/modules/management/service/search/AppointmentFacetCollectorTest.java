@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+
+/**
+ * Tests of the facet counts of the multiview : a hit matching all the filters is counted in every dimension, a hit missing exactly one filter is only
+ * counted in the dimension of this filter, and a hit missing two filters is not counted
+ */
+public class AppointmentFacetCollectorTest
+{
+    private static final int FORM = 1;
+    private static final int OTHER_FORM = 2;
+    private static final int CATEGORY = 10;
+    private static final int OTHER_CATEGORY = 20;
+    private static final int STATE = 100;
+    private static final int OTHER_STATE = 200;
+
+    /**
+     * Count the facets of an index holding one hit matching all the filters, one hit missing each filter and one hit missing two filters
+     * 
+     * @throws IOException
+     *             - if the index cannot be written
+     */
+    @Test
+    public void testCountsWithOneFailingDimension( ) throws IOException
+    {
+        try ( Directory directory = new ByteBuffersDirectory( ) )
+        {
+            try ( IndexWriter writer = new IndexWriter( directory, new IndexWriterConfig( new StandardAnalyzer( ) ) ) )
+            {
+                writer.addDocument( createDocument( FORM, CATEGORY, STATE, false ) );
+                writer.addDocument( createDocument( OTHER_FORM, CATEGORY, OTHER_STATE, false ) );
+                writer.addDocument( createDocument( FORM, OTHER_CATEGORY, OTHER_STATE, false ) );
+                writer.addDocument( createDocument( FORM, CATEGORY, OTHER_STATE, true ) );
+                writer.addDocument( createDocument( OTHER_FORM, OTHER_CATEGORY, OTHER_STATE, false ) );
+            }
+
+            MultiviewFilter filter = new MultiviewFilter( );
+            filter.setIdForm( FORM );
+            filter.setIdCategory( CATEGORY );
+            filter.setStatus( AppointmentFacetCounts.STATUS_RESERVED );
+
+            AppointmentFacetCounts facetCounts = new AppointmentFacetCounts( );
+            TotalHitCountCollector pageCollector = new TotalHitCountCollector( );
+            AppointmentFacetCollector collector = new AppointmentFacetCollector( pageCollector, filter, facetCounts );
+            try ( DirectoryReader reader = DirectoryReader.open( directory ) )
+            {
+                new IndexSearcher( reader ).search( new MatchAllDocsQuery( ), collector );
+            }
+
+            // Only the hit matching all the filters is a result
+            assertEquals( 1, collector.getTotalHits( ) );
+            assertEquals( 1, pageCollector.getTotalHits( ) );
+
+            // Each dimension counts the result and the hit missing only its own filter
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByForm( ).get( FORM ) );
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByForm( ).get( OTHER_FORM ) );
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByCategory( ).get( CATEGORY ) );
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByCategory( ).get( OTHER_CATEGORY ) );
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByStatus( ).get( AppointmentFacetCounts.STATUS_RESERVED ) );
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByStatus( ).get( AppointmentFacetCounts.STATUS_CANCELLED ) );
+
+            // The states are not a filter of the collector : only the results are counted
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByState( ).get( STATE ) );
+            assertNull( facetCounts.getCountByState( ).get( OTHER_STATE ) );
+        }
+    }
+
+    /**
+     * Without filter, every hit is a result counted in every dimension
+     * 
+     * @throws IOException
+     *             - if the index cannot be written
+     */
+    @Test
+    public void testCountsWithoutFilter( ) throws IOException
+    {
+        try ( Directory directory = new ByteBuffersDirectory( ) )
+        {
+            try ( IndexWriter writer = new IndexWriter( directory, new IndexWriterConfig( new StandardAnalyzer( ) ) ) )
+            {
+                writer.addDocument( createDocument( FORM, CATEGORY, STATE, false ) );
+                writer.addDocument( createDocument( OTHER_FORM, CATEGORY, STATE, true ) );
+            }
+
+            MultiviewFilter filter = new MultiviewFilter( );
+            filter.setStatus( -1 );
+
+            AppointmentFacetCounts facetCounts = new AppointmentFacetCounts( );
+            AppointmentFacetCollector collector = new AppointmentFacetCollector( new TotalHitCountCollector( ), filter, facetCounts );
+            try ( DirectoryReader reader = DirectoryReader.open( directory ) )
+            {
+                new IndexSearcher( reader ).search( new MatchAllDocsQuery( ), collector );
+            }
+
+            assertEquals( 2, collector.getTotalHits( ) );
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByForm( ).get( FORM ) );
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByForm( ).get( OTHER_FORM ) );
+            assertEquals( Integer.valueOf( 2 ), facetCounts.getCountByCategory( ).get( CATEGORY ) );
+            assertEquals( Integer.valueOf( 2 ), facetCounts.getCountByState( ).get( STATE ) );
+            assertEquals( Integer.valueOf( 1 ), facetCounts.getCountByStatus( ).get( AppointmentFacetCounts.STATUS_CANCELLED ) );
+        }
+    }
+
+    /**
+     * Create a document with the doc values of the facets, as the indexer does
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param nIdCategory
+     *            the category id
+     * @param nIdState
+     *            the workflow state id
+     * @param bCancelled
+     *            true if the appointment is cancelled
+     * @return the document
+     */
+    private static Document createDocument( int nIdForm, int nIdCategory, int nIdState, boolean bCancelled )
+    {
+        Document document = new Document( );
+        document.add( new NumericDocValuesField( AppointmentSearchItem.FIELD_ID_FORM, nIdForm ) );
+        document.add( new NumericDocValuesField( AppointmentSearchItem.FIELD_ID_CATEGORY, nIdCategory ) );
+        document.add( new NumericDocValuesField( AppointmentSearchItem.FIELD_ID_WORKFLOW_STATE, nIdState ) );
+        document.add( new SortedDocValuesField( AppointmentSearchItem.FIELD_CANCELLED, new BytesRef( String.valueOf( bCancelled ) ) ) );
+        return document;
+    }
+}
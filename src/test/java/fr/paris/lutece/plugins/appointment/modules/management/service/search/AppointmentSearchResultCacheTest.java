@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.appointment.modules.management.service.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.AppointmentSearchItem;
+import fr.paris.lutece.plugins.appointment.modules.management.business.search.MultiviewFilter;
+
+/**
+ * Tests of the keys of the multiview result cache : the pages of users authorized on other forms, or sorted otherwise, must never be shared
+ */
+public class AppointmentSearchResultCacheTest
+{
+    private static final AppointmentSortConfig SORT_START_DATE = new AppointmentSortConfig( AppointmentSearchItem.FIELD_START_DATE, true );
+
+    /**
+     * Users authorized on other forms get other keys
+     */
+    @Test
+    public void testKeyDiffersByAuthorizedForms( )
+    {
+        List<Object> key = AppointmentSearchResultCache.createKey( createFilter( 1, 2 ), SORT_START_DATE, 0, 10, false );
+        assertNotEquals( key, AppointmentSearchResultCache.createKey( createFilter( 1, 3 ), SORT_START_DATE, 0, 10, false ) );
+        assertNotEquals( key, AppointmentSearchResultCache.createKey( createFilter( 1 ), SORT_START_DATE, 0, 10, false ) );
+        assertNotEquals( key, AppointmentSearchResultCache.createKey( new MultiviewFilter( ), SORT_START_DATE, 0, 10, false ) );
+    }
+
+    /**
+     * The order of the authorized forms does not matter
+     */
+    @Test
+    public void testKeyIgnoresOrderOfAuthorizedForms( )
+    {
+        assertEquals( AppointmentSearchResultCache.createKey( createFilter( 1, 2 ), SORT_START_DATE, 0, 10, false ),
+                AppointmentSearchResultCache.createKey( createFilter( 2, 1 ), SORT_START_DATE, 0, 10, false ) );
+    }
+
+    /**
+     * Other sorts get other keys, and equal sorts the same key
+     */
+    @Test
+    public void testKeyDiffersBySort( )
+    {
+        MultiviewFilter filter = createFilter( 1 );
+        List<Object> key = AppointmentSearchResultCache.createKey( filter, SORT_START_DATE, 0, 10, false );
+        assertNotEquals( key,
+                AppointmentSearchResultCache.createKey( filter, new AppointmentSortConfig( AppointmentSearchItem.FIELD_START_DATE, false ), 0, 10, false ) );
+        assertNotEquals( key,
+                AppointmentSearchResultCache.createKey( filter, new AppointmentSortConfig( AppointmentSearchItem.FIELD_LAST_NAME, true ), 0, 10, false ) );
+        assertNotEquals( key, AppointmentSearchResultCache.createKey( filter, null, 0, 10, false ) );
+        assertEquals( key,
+                AppointmentSearchResultCache.createKey( filter, new AppointmentSortConfig( AppointmentSearchItem.FIELD_START_DATE, true ), 0, 10, false ) );
+    }
+
+    /**
+     * Other pages, and the pages with facet counts, get other keys, while the case of the text criteria does not matter
+     */
+    @Test
+    public void testKeyDiffersByPage( )
+    {
+        MultiviewFilter filter = createFilter( 1 );
+        filter.setLastName( "Martin" );
+        List<Object> key = AppointmentSearchResultCache.createKey( filter, SORT_START_DATE, 0, 10, false );
+        assertNotEquals( key, AppointmentSearchResultCache.createKey( filter, SORT_START_DATE, 10, 10, false ) );
+        assertNotEquals( key, AppointmentSearchResultCache.createKey( filter, SORT_START_DATE, 0, 10, true ) );
+
+        MultiviewFilter filterLowerCase = createFilter( 1 );
+        filterLowerCase.setLastName( "martin" );
+        assertEquals( key, AppointmentSearchResultCache.createKey( filterLowerCase, SORT_START_DATE, 0, 10, false ) );
+    }
+
+    /**
+     * A page computed by another index reader is not returned
+     */
+    @Test
+    public void testGetDropsPageOfOtherReader( )
+    {
+        AppointmentSearchResultCache cache = new AppointmentSearchResultCache( 10 );
+        List<Object> key = AppointmentSearchResultCache.createKey( createFilter( 1 ), SORT_START_DATE, 0, 10, false );
+        Object readerKey = new Object( );
+        cache.put( key, new AppointmentSearchResultCache.CachedResult( readerKey, new ArrayList<>( ), 0, null, null ) );
+
+        assertNull( cache.get( key, new Object( ) ) );
+        assertNull( cache.get( key, readerKey ) );
+    }
+
+    /**
+     * Create a filter authorized on some forms
+     * 
+     * @param tabIdForm
+     *            the authorized forms
+     * @return the filter
+     */
+    private static MultiviewFilter createFilter( Integer... tabIdForm )
+    {
+        MultiviewFilter filter = new MultiviewFilter( );
+        filter.setIdFormList( Arrays.asList( tabIdForm ) );
+        return filter;
+    }
+}